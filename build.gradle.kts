@@ -9,14 +9,95 @@ repositories {
     mavenCentral()
 }
 
+// VectorDecoder on its own, so only it is compiled against the incubating Vector API.
+// CipherKey loads it by name, so it only has to be on the runtime classpath.
+val vector by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+}
+
+sourceSets.test {
+    runtimeClasspath += vector.output
+}
+
+val jmh by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output + vector.output
+}
+
 dependencies {
     testImplementation(platform("org.junit:junit-bom:5.10.0"))
     testImplementation("org.junit.jupiter:junit-jupiter")
     testRuntimeOnly("org.junit.platform:junit-platform-launcher")
     testImplementation("org.mockito:mockito-core:5.+")
     testImplementation("org.mockito:mockito-junit-jupiter:5.+")
+
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+// The optional SIMD decoder (VectorDecoder) uses the incubating Vector API.
+// At runtime it is only used if the JVM is started with --add-modules jdk.incubator.vector.
+val vectorModule = listOf("--add-modules", "jdk.incubator.vector")
+
+tasks.named<JavaCompile>("compileVectorJava") {
+    options.compilerArgs.addAll(vectorModule)
 }
 
 tasks.test {
     useJUnitPlatform()
-}
\ No newline at end of file
+    jvmArgs(vectorModule)
+    // The byte-level (mapped) paths only run for UTF-8 and ISO-8859-1; pin the charset
+    // so they are tested whatever the build machine's locale is
+    systemProperty("file.encoding", "UTF-8")
+}
+
+tasks.jar {
+    from(vector.output)
+    manifest {
+        attributes("Main-Class" to "TopSecret")
+    }
+}
+
+// AppCDS: a training run of the app jar records the classes it loads into
+// build/cds/topsecret.jsa. Start with the same jar path to use it:
+//   java -XX:SharedArchiveFile=build/cds/topsecret.jsa -jar build/libs/<jar> ...
+val cdsTrainingData by tasks.registering(Copy::class) {
+    from("src/main/java") {
+        include("data/*.txt", "ciphers/*.txt")
+    }
+    into(layout.buildDirectory.dir("cds/train"))
+}
+
+tasks.register<Exec>("cdsArchive") {
+    group = "distribution"
+    description = "Builds an AppCDS archive for the app jar from a training run."
+    dependsOn(tasks.jar, cdsTrainingData)
+    val jarFile = tasks.jar.get().archiveFile.get().asFile
+    val archive = layout.buildDirectory.file("cds/topsecret.jsa").get().asFile
+    inputs.file(jarFile)
+    outputs.file(archive)
+    workingDir = layout.buildDirectory.dir("cds/train").get().asFile
+    commandLine(File(System.getProperty("java.home"), "bin/java").path,
+        "-XX:ArchiveClassesAtExit=" + archive.path, "-jar", jarFile.path, "01")
+}
+
+// Runs the JMH benchmarks from build/jmh-run, where they create their own data/ folder.
+// Pass JMH options with -PjmhArgs, e.g. -PjmhArgs="CipherKey -p size=1024"
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks."
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    val runDir = layout.buildDirectory.dir("jmh-run").get().asFile
+    workingDir = runDir
+    jvmArgs(vectorModule)
+    args((project.findProperty("jmhArgs") ?: "").toString().split(" ").filter { it.isNotBlank() })
+    // StartupBenchmark launches the app jar, with and without the CDS archive
+    dependsOn("cdsArchive")
+    systemProperty("topsecret.jar", tasks.jar.get().archiveFile.get().asFile.path)
+    systemProperty("topsecret.cds", layout.buildDirectory.file("cds/topsecret.jsa").get().asFile.path)
+    systemProperty("topsecret.train", layout.buildDirectory.dir("cds/train").get().asFile.path)
+    doFirst {
+        runDir.mkdirs()
+    }
+}
@@ -0,0 +1,103 @@
+import benchmarks.Targets;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implementation of benchmarks.Targets that calls straight into the application classes.
+ */
+public class JmhTargets implements Targets {
+
+    @Override
+    public Key newKey(String actual, String cipher) {
+        Map<Character, Character> cipherToActual = new HashMap<>();
+        for (int i = 0; i < actual.length(); i++) {
+            cipherToActual.put(cipher.charAt(i), actual.charAt(i));
+        }
+        CipherKey key = new CipherKey(cipherToActual);
+
+        return new Key() {
+            @Override
+            public char decode(char c) {
+                return key.decode(c);
+            }
+
+            @Override
+            public void decode(char[] src, char[] dst, int off, int len) {
+                key.decode(src, dst, off, len);
+            }
+
+            @Override
+            public void decode(byte[] src, byte[] dst, int off, int len) {
+                key.decode(src, dst, off, len);
+            }
+
+            @Override
+            public void encode(char[] src, char[] dst, int off, int len) {
+                key.encode(src, dst, off, len);
+            }
+
+            @Override
+            public void decodeScalar(byte[] src, byte[] dst, int off, int len) {
+                key.decodeScalar(src, dst, off, len);
+            }
+
+            @Override
+            public boolean isVectorized() {
+                return key.isVectorized();
+            }
+        };
+    }
+
+    @Override
+    public Targets.Decipherer newCipher(int keyCacheSize) {
+        Cipher cipher = new Cipher(keyCacheSize);
+
+        return new Targets.Decipherer() {
+            @Override
+            public String decipher(String cipheredText, String keyFilePath) throws IOException {
+                return cipher.decipher(cipheredText, keyFilePath);
+            }
+
+            @Override
+            public Object loadKey(String keyFilePath) throws IOException {
+                return cipher.loadKey(keyFilePath);
+            }
+
+            @Override
+            public void compileKey(String keyFilePath, String outputPath) throws IOException {
+                try (FileChannel out = FileChannel.open(Path.of(outputPath), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    cipher.compileKey(keyFilePath, out);
+                }
+            }
+        };
+    }
+
+    @Override
+    public DataFiles newFileHandler() {
+        FileHandler fileHandler = new FileHandler();
+
+        return new DataFiles() {
+            @Override
+            public String readFile(String filename) throws IOException {
+                return fileHandler.readFile(filename);
+            }
+
+            @Override
+            public List<String> listFiles() {
+                return fileHandler.listFiles();
+            }
+
+            @Override
+            public void close() throws IOException {
+                fileHandler.close();
+            }
+        };
+    }
+}
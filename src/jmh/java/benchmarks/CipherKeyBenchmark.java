@@ -0,0 +1,72 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CipherKey.decode, one call per character and as a single bulk call,
+ * and the inverse CipherKey.encode as a bulk call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CipherKeyBenchmark {
+
+    @Param({"1024", "1048576", "104857600"})
+    int size;
+
+    @Param({"26", "94", "4096"})
+    int alphabet;
+
+    @Param({"ascii", "unicode"})
+    String charset;
+
+    private Targets.Key key;
+    private char[] input;
+    private char[] output;
+
+    @Setup
+    public void setUp() {
+        String letters = Inputs.alphabet(charset, alphabet);
+        key = Targets.get().newKey(letters, Inputs.rotate(letters));
+        input = Inputs.text(letters, size).toCharArray();
+        output = new char[size];
+    }
+
+    @Benchmark
+    public char[] decodePerChar() {
+        Targets.Key k = key;
+        char[] in = input;
+        char[] out = output;
+        for (int i = 0; i < in.length; i++) {
+            out[i] = k.decode(in[i]);
+        }
+        return out;
+    }
+
+    @Benchmark
+    public char[] decodeBulk() {
+        key.decode(input, output, 0, input.length);
+        return output;
+    }
+
+    @Benchmark
+    public char[] encodeBulk() {
+        key.encode(input, output, 0, input.length);
+        return output;
+    }
+}
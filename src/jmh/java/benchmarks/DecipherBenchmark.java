@@ -0,0 +1,54 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cipher.decipher end to end: key lookup (cached) plus decoding the whole String.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecipherBenchmark {
+
+    @Param({"1024", "1048576", "104857600"})
+    int size;
+
+    @Param({"26", "94", "4096"})
+    int alphabet;
+
+    @Param({"ascii", "unicode"})
+    String charset;
+
+    private Targets.Decipherer cipher;
+    private String keyPath;
+    private String input;
+
+    @Setup
+    public void setUp() throws IOException {
+        String letters = Inputs.alphabet(charset, alphabet);
+        keyPath = Inputs.writeKeyFile(letters).toString();
+        cipher = Targets.get().newCipher(16);
+        input = Inputs.text(letters, size);
+    }
+
+    @Benchmark
+    public String decipher() throws IOException {
+        return cipher.decipher(input, keyPath);
+    }
+}
@@ -0,0 +1,91 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Deterministic benchmark inputs: alphabets, ciphered text and key files.
+ */
+final class Inputs {
+
+    /** Printable ASCII without space, the largest alphabet an "ascii" key can use. */
+    static final int MAX_ASCII_ALPHABET = 126 - 33 + 1;
+
+    private Inputs() {
+    }
+
+    /**
+     * Returns size distinct characters: printable ASCII for "ascii" (capped at
+     * MAX_ASCII_ALPHABET), or characters starting at U+0410 for "unicode".
+     */
+    static String alphabet(String charset, int size) {
+        char first;
+        if ("ascii".equals(charset)) {
+            first = '!';
+            size = Math.min(size, MAX_ASCII_ALPHABET);
+        } else if ("unicode".equals(charset)) {
+            first = '\u0410';
+        } else {
+            throw new IllegalArgumentException("Unknown charset: " + charset);
+        }
+
+        StringBuilder sb = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            sb.append((char) (first + i));
+        }
+        return sb.toString();
+    }
+
+    /** The alphabet rotated by one, used as the cipher line of a key. */
+    static String rotate(String alphabet) {
+        return alphabet.substring(1) + alphabet.charAt(0);
+    }
+
+    /** Random text of length chars drawn from alphabet, with spaces and a newline about every 60 chars. */
+    static String text(String alphabet, int length) {
+        Random random = new Random(42);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            int r = random.nextInt(64);
+            if (r == 0) {
+                chars[i] = '\n';
+            } else if (r < 8) {
+                chars[i] = ' ';
+            } else {
+                chars[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+            }
+        }
+        return new String(chars);
+    }
+
+    static Path writeKeyFile(String alphabet) throws IOException {
+        Path key = Files.createTempFile("bench-key", ".txt");
+        Files.writeString(key, alphabet + "\n" + rotate(alphabet) + "\n", StandardCharsets.UTF_8);
+        key.toFile().deleteOnExit();
+        return key;
+    }
+
+    /** The "data" folder FileHandler reads, created in the working directory if needed. */
+    static Path dataDir() throws IOException {
+        return Files.createDirectories(Paths.get("data"));
+    }
+
+    /** Deletes every benchmark file (bench-*.txt) from the data folder. */
+    static void cleanDataDir() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(dataDir())) {
+            files = listing.filter(file -> file.getFileName().toString().startsWith("bench-"))
+                    .collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+    }
+}
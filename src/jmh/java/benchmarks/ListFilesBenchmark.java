@@ -0,0 +1,69 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileHandler.listFiles on a data folder with many files: a cold listing from a
+ * new FileHandler (full scan) and a warm listing from the cached index.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListFilesBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    int files;
+
+    private Targets targets;
+    private Targets.DataFiles warm;
+
+    @Setup
+    public void setUp() throws IOException {
+        Inputs.cleanDataDir();
+        Path dataDir = Inputs.dataDir();
+        for (int i = 0; i < files; i++) {
+            Files.createFile(dataDir.resolve(String.format("bench-%06d.txt", i)));
+        }
+        targets = Targets.get();
+        warm = targets.newFileHandler();
+        warm.listFiles();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        warm.close();
+        Inputs.cleanDataDir();
+    }
+
+    @Benchmark
+    public List<String> listFilesCold() throws IOException {
+        try (Targets.DataFiles handler = targets.newFileHandler()) {
+            return handler.listFiles();
+        }
+    }
+
+    @Benchmark
+    public List<String> listFilesWarm() {
+        return warm.listFiles();
+    }
+}
@@ -0,0 +1,65 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cipher.loadKey with the key cache enabled (revalidation only) and disabled (full load),
+ * for text keys and compiled binary keys.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadKeyBenchmark {
+
+    @Param({"26", "94", "4096", "32768"})
+    int alphabet;
+
+    @Param({"ascii", "unicode"})
+    String charset;
+
+    @Param({"text", "compiled"})
+    String format;
+
+    private Targets.Decipherer cached;
+    private Targets.Decipherer uncached;
+    private String keyPath;
+
+    @Setup
+    public void setUp() throws IOException {
+        keyPath = Inputs.writeKeyFile(Inputs.alphabet(charset, alphabet)).toString();
+        Targets targets = Targets.get();
+        cached = targets.newCipher(16);
+        uncached = targets.newCipher(0);
+        if ("compiled".equals(format)) {
+            String compiledPath = keyPath + ".tkey";
+            uncached.compileKey(keyPath, compiledPath);
+            keyPath = compiledPath;
+        }
+    }
+
+    @Benchmark
+    public Object loadKeyCached() throws IOException {
+        return cached.loadKey(keyPath);
+    }
+
+    @Benchmark
+    public Object loadKeyUncached() throws IOException {
+        return uncached.loadKey(keyPath);
+    }
+}
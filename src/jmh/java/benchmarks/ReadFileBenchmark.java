@@ -0,0 +1,58 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileHandler.readFile on a file in ./data (the jmh task runs from build/jmh-run).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadFileBenchmark {
+
+    private static final String FILE = "bench-read.txt";
+
+    @Param({"1024", "1048576", "104857600"})
+    int size;
+
+    @Param({"ascii", "unicode"})
+    String charset;
+
+    private Targets.DataFiles files;
+
+    @Setup
+    public void setUp() throws IOException {
+        Inputs.cleanDataDir();
+        Files.writeString(Inputs.dataDir().resolve(FILE), Inputs.text(Inputs.alphabet(charset, 62), size));
+        files = Targets.get().newFileHandler();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        files.close();
+        Inputs.cleanDataDir();
+    }
+
+    @Benchmark
+    public String readFile() throws IOException {
+        return files.readFile(FILE);
+    }
+}
@@ -0,0 +1,93 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to first output of a fresh "java -jar" process for the list and display
+ * commands, with and without the AppCDS archive built by the cdsArchive task.
+ *
+ * The jmh task passes the jar, archive and training folder (which has data/ and
+ * ciphers/) as the topsecret.jar, topsecret.cds and topsecret.train system properties.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+@Fork(1)
+public class StartupBenchmark {
+
+    @Param({"list", "display"})
+    String command;
+
+    @Param({"off", "on"})
+    String cds;
+
+    private List<String> commandLine;
+    private File workDir;
+    private Process process;
+
+    @Setup
+    public void setUp() {
+        String jar = requiredPath("topsecret.jar");
+        workDir = new File(requiredPath("topsecret.train"));
+
+        commandLine = new ArrayList<>();
+        commandLine.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if ("on".equals(cds)) {
+            commandLine.add("-XX:SharedArchiveFile=" + requiredPath("topsecret.cds"));
+        }
+        commandLine.add("-jar");
+        commandLine.add(jar);
+        if ("display".equals(command)) {
+            commandLine.add("01");
+        }
+    }
+
+    @Benchmark
+    public int timeToFirstOutput() throws IOException {
+        process = new ProcessBuilder(commandLine)
+                .directory(workDir)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        InputStream out = process.getInputStream();
+        return out.read();
+    }
+
+    @TearDown(Level.Invocation)
+    public void finishProcess() throws IOException, InterruptedException {
+        process.getInputStream().transferTo(OutputStream.nullOutputStream());
+        process.waitFor();
+    }
+
+    private static String requiredPath(String property) {
+        String value = System.getProperty(property);
+        if (value == null || !Files.exists(Path.of(value))) {
+            throw new IllegalStateException(property + " is not set or missing; run this through the jmh task");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,62 @@
+package benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Bridge to the application classes.
+ *
+ * JMH does not allow benchmarks in the default package, and classes in a named
+ * package cannot import the default-package application classes, so benchmarks
+ * reach them through this interface. The implementation (JmhTargets) lives in the
+ * default package of the jmh source set.
+ */
+public interface Targets {
+
+    interface Key {
+        char decode(char c);
+
+        void decode(char[] src, char[] dst, int off, int len);
+
+        void encode(char[] src, char[] dst, int off, int len);
+
+        /** Byte decode of an ASCII key (SIMD when available). */
+        void decode(byte[] src, byte[] dst, int off, int len);
+
+        /** Byte decode of an ASCII key, always on the scalar table. */
+        void decodeScalar(byte[] src, byte[] dst, int off, int len);
+
+        boolean isVectorized();
+    }
+
+    interface Decipherer {
+        String decipher(String cipheredText, String keyFilePath) throws IOException;
+
+        Object loadKey(String keyFilePath) throws IOException;
+
+        void compileKey(String keyFilePath, String outputPath) throws IOException;
+    }
+
+    interface DataFiles extends Closeable {
+        String readFile(String filename) throws IOException;
+
+        List<String> listFiles();
+    }
+
+    /** Build a CipherKey mapping cipher.charAt(i) to actual.charAt(i). */
+    Key newKey(String actual, String cipher);
+
+    Decipherer newCipher(int keyCacheSize);
+
+    /** Create a FileHandler for the "data" folder in the working directory. */
+    DataFiles newFileHandler();
+
+    static Targets get() {
+        try {
+            return (Targets) Class.forName("JmhTargets").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("JmhTargets not found on the benchmark classpath", e);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Byte decoding of an ASCII key: the Vector API kernel against the scalar table.
+ * The jmh task starts forks with --add-modules jdk.incubator.vector; setup fails
+ * if the SIMD kernel is not active (it needs 512-bit vectors), so the comparison is
+ * never scalar vs scalar.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectorDecodeBenchmark {
+
+    @Param({"1024", "1048576", "104857600"})
+    int size;
+
+    @Param({"26", "94"})
+    int alphabet;
+
+    private Targets.Key key;
+    private byte[] input;
+    private byte[] output;
+
+    @Setup
+    public void setUp() {
+        String letters = Inputs.alphabet("ascii", alphabet);
+        key = Targets.get().newKey(letters, Inputs.rotate(letters));
+        if (!key.isVectorized()) {
+            throw new IllegalStateException("Vector API kernel not available in this JVM or on this CPU");
+        }
+        input = Inputs.text(letters, size).getBytes(StandardCharsets.US_ASCII);
+        output = new byte[size];
+    }
+
+    @Benchmark
+    public byte[] scalar() {
+        key.decodeScalar(input, output, 0, input.length);
+        return output;
+    }
+
+    @Benchmark
+    public byte[] vector() {
+        key.decode(input, output, 0, input.length);
+        return output;
+    }
+}
@@ -1,18 +1,30 @@
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashMap;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.BitSet;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Team Member D: Cipher
  *
- * Loads and validates a cipher key file and can decipher ciphered text.
+ * Loads and validates a cipher key file and can decipher ciphered text,
+ * or encipher plain text with the inverse of the same key.
  *
  * Key file format (2 lines):
  *  line 1: actual characters (plain alphabet)
@@ -23,9 +35,68 @@ import java.util.Set;
  *  bcdefa
  *
  * This means: cipher 'b' decodes to actual 'a', cipher 'c' decodes to 'b', etc.
+ * Both lines are sequences of Unicode code points, so alphabets may contain
+ * supplementary characters (e.g. emoji); no code point may repeat on either line.
+ *
+ * A key can also be compiled into a binary file (see CompiledKey and compileKey).
+ * loadKey recognizes compiled keys by their magic number and memory-maps them
+ * without any parsing; text keys keep working everywhere.
+ *
+ * Loaded keys are kept in a small LRU cache keyed by the resolved path. A cached
+ * key is reused as long as the file's last-modified time and size are unchanged.
+ *
+ * Texts longer than the parallel threshold are decoded in chunks on a ForkJoinPool.
+ * Chunk boundaries never split a surrogate pair, and the result is identical to
+ * the sequential path.
+ *
+ * A Cipher is safe for concurrent use: the key cache is guarded by its own lock,
+ * loaded keys are immutable, and the parallel settings are volatile.
  */
 public class Cipher {
 
+    static final int DEFAULT_KEY_CACHE_SIZE = 16;
+
+    /** Number of characters read, decoded and written per step when streaming. */
+    static final int CHUNK_SIZE = 8192;
+
+    /** Default number of characters above which decipher(String, ...) runs in parallel. */
+    static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 20;
+
+    /** Size of the direct buffer each thread reuses when deciphering into a channel. */
+    static final int OUTPUT_BUFFER_SIZE = 1 << 20;
+
+    private static final ThreadLocal<ByteBuffer> OUTPUT_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE));
+
+    private final int keyCacheSize;
+    private final Map<Path, CachedKey> keyCache;
+    private final AtomicLong keyCacheHits = new AtomicLong();
+    private final AtomicLong keyCacheMisses = new AtomicLong();
+    private final AtomicLong keyCacheReloads = new AtomicLong();
+
+    private volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private volatile ForkJoinPool parallelPool = ForkJoinPool.commonPool();
+
+    public Cipher() {
+        this(DEFAULT_KEY_CACHE_SIZE);
+    }
+
+    /**
+     * @param keyCacheSize Maximum number of keys kept in the cache (0 disables caching).
+     */
+    public Cipher(int keyCacheSize) {
+        if (keyCacheSize < 0) {
+            throw new IllegalArgumentException("Key cache size cannot be negative");
+        }
+        this.keyCacheSize = keyCacheSize;
+        this.keyCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, CachedKey> eldest) {
+                return size() > Cipher.this.keyCacheSize;
+            }
+        };
+    }
+
     /**
      * Decipher a ciphered text string using the given key file.
      *
@@ -37,16 +108,343 @@ public class Cipher {
      * @throws IllegalArgumentException if the key file is invalid.
      */
     public String decipher(String cipheredText, String keyFilePath) throws IOException {
-        CipherKey key = loadKey(keyFilePath);
-        StringBuilder sb = new StringBuilder(cipheredText.length());
-        for (int i = 0; i < cipheredText.length(); i++) {
-            sb.append(key.decode(cipheredText.charAt(i)));
+        return decipher(cipheredText, loadKey(keyFilePath));
+    }
+
+    /**
+     * Decipher a ciphered text string using an already loaded key.
+     */
+    public String decipher(String cipheredText, CipherKey key) {
+        long start = PipelineStats.start();
+        char[] chars = cipheredText.toCharArray();
+        String result;
+        if (!key.isWidthPreserving()) {
+            char[] decoded = new char[2 * chars.length];
+            result = new String(decoded, 0, key.decode(chars, 0, chars.length, decoded, 0));
+        } else {
+            if (chars.length > parallelThreshold) {
+                parallelPool.invoke(new DecodeTask(key, false, chars, 0, chars.length, parallelThreshold));
+            } else {
+                key.decode(chars, chars, 0, chars.length);
+            }
+            result = new String(chars);
+        }
+        PipelineStats.DECIPHER.record(start, chars.length);
+        return result;
+    }
+
+    /**
+     * Decipher len characters of chars starting at off using an already loaded key.
+     * Used to decode a text piece by piece as it is read; pieces must not split a
+     * surrogate pair. The array may be overwritten.
+     */
+    public String decipher(char[] chars, int off, int len, CipherKey key) {
+        long start = PipelineStats.start();
+        String result;
+        if (key.isWidthPreserving()) {
+            key.decode(chars, chars, off, len);
+            result = new String(chars, off, len);
+        } else {
+            char[] decoded = new char[2 * len];
+            result = new String(decoded, 0, key.decode(chars, off, len, decoded, 0));
+        }
+        PipelineStats.DECIPHER.record(start, len);
+        return result;
+    }
+
+    /**
+     * Encipher a plain text string using the given key file (the inverse of decipher).
+     *
+     * @param plainText   The text to encipher.
+     * @param keyFilePath Path or filename of the key file.
+     * @return Ciphered text.
+     * @throws IOException              if the key file cannot be read.
+     * @throws IllegalArgumentException if the key file is invalid.
+     */
+    public String encipher(String plainText, String keyFilePath) throws IOException {
+        return encipher(plainText, loadKey(keyFilePath));
+    }
+
+    /**
+     * Encipher a plain text string using an already loaded key.
+     */
+    public String encipher(String plainText, CipherKey key) {
+        long start = PipelineStats.start();
+        char[] chars = plainText.toCharArray();
+        String result;
+        if (!key.isWidthPreserving()) {
+            char[] encoded = new char[2 * chars.length];
+            result = new String(encoded, 0, key.encode(chars, 0, chars.length, encoded, 0));
+        } else {
+            if (chars.length > parallelThreshold) {
+                parallelPool.invoke(new DecodeTask(key, true, chars, 0, chars.length, parallelThreshold));
+            } else {
+                key.encode(chars, chars, 0, chars.length);
+            }
+            result = new String(chars);
+        }
+        PipelineStats.ENCIPHER.record(start, chars.length);
+        return result;
+    }
+
+    /**
+     * Set the text length above which decipher(String, ...) splits the work into
+     * chunks of at most this many characters and decodes them in parallel.
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        if (parallelThreshold < 1) {
+            throw new IllegalArgumentException("Parallel threshold must be positive");
+        }
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Set the pool used for parallel decoding (the common pool by default).
+     */
+    public void setParallelPool(ForkJoinPool parallelPool) {
+        if (parallelPool == null) {
+            throw new IllegalArgumentException("Parallel pool cannot be null");
+        }
+        this.parallelPool = parallelPool;
+    }
+
+    /**
+     * Decipher everything from a reader into a writer using the given key file.
+     * Works in fixed-size chunks, so memory use does not depend on the input size.
+     * Neither stream is closed; the writer is not flushed.
+     *
+     * @param in          Ciphered input.
+     * @param out         Destination for the deciphered text.
+     * @param keyFilePath Path or filename of the key file.
+     * @throws IOException              if the key file or the streams fail.
+     * @throws IllegalArgumentException if the key file is invalid.
+     */
+    public void decipher(Reader in, Writer out, String keyFilePath) throws IOException {
+        decipher(in, out, loadKey(keyFilePath));
+    }
+
+    /**
+     * Decipher everything from a reader into a writer using an already loaded key.
+     */
+    public void decipher(Reader in, Writer out, CipherKey key) throws IOException {
+        transform(in, out, key, false);
+    }
+
+    /**
+     * Runs a reader through the key chunk by chunk. A high surrogate at the end of a
+     * chunk is held back until the next one, so a pair is always mapped as one code point.
+     */
+    private static void transform(Reader in, Writer out, CipherKey key, boolean encode) throws IOException {
+        PipelineStats.Stage stage = encode ? PipelineStats.ENCIPHER : PipelineStats.DECIPHER;
+        char[] buf = new char[CHUNK_SIZE];
+        char[] mapped = key.isWidthPreserving() ? null : new char[2 * CHUNK_SIZE];
+        int carry = 0;
+        int n;
+        while ((n = in.read(buf, carry, buf.length - carry)) != -1) {
+            int len = carry + n;
+            int ready = len > 0 && Character.isHighSurrogate(buf[len - 1]) ? len - 1 : len;
+            transformChunk(buf, ready, mapped, out, key, encode, stage);
+            carry = len - ready;
+            if (carry > 0) {
+                buf[0] = buf[len - 1];
+            }
+        }
+        transformChunk(buf, carry, mapped, out, key, encode, stage);
+    }
+
+    private static void transformChunk(char[] buf, int len, char[] mapped, Writer out, CipherKey key,
+                                       boolean encode, PipelineStats.Stage stage) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        long start = PipelineStats.start();
+        if (mapped == null) {
+            if (encode) {
+                key.encode(buf, buf, 0, len);
+            } else {
+                key.decode(buf, buf, 0, len);
+            }
+            stage.record(start, len);
+            out.write(buf, 0, len);
+        } else {
+            int w = encode ? key.encode(buf, 0, len, mapped, 0) : key.decode(buf, 0, len, mapped, 0);
+            stage.record(start, len);
+            out.write(mapped, 0, w);
+        }
+    }
+
+    /**
+     * Decipher raw ASCII-compatible bytes (e.g. memory-mapped file segments) straight
+     * into an output stream, without decoding to chars or building Strings.
+     * Line endings are normalized and a final newline added exactly as readFile does.
+     * Bytes the key leaves alone are copied unchanged, so the output only matches the
+     * String-based path where that holds (see FileHandler.passesBytesThrough): always
+     * for ISO-8859-1, for well-formed input in UTF-8, and not for US-ASCII.
+     * This is for stream sinks; channels (files, stdout) should use the
+     * WritableByteChannel overload, which skips the heap buffer.
+     *
+     * @param in  Consecutive buffers holding the ciphered bytes.
+     * @param out Destination for the deciphered bytes (not flushed or closed).
+     * @param key An ASCII key (see CipherKey.isAscii).
+     * @throws IOException              if writing fails.
+     * @throws IllegalArgumentException if the key is not ASCII.
+     */
+    public void decipher(List<? extends ByteBuffer> in, OutputStream out, CipherKey key) throws IOException {
+        if (!key.isAscii()) {
+            throw new IllegalArgumentException("Byte deciphering requires an ASCII key");
+        }
+        byte[] buf = new byte[CHUNK_SIZE];
+        boolean lastWasCR = false;
+        byte last = '\n';
+
+        for (ByteBuffer segment : in) {
+            ByteBuffer src = segment.duplicate();
+            while (src.hasRemaining()) {
+                int n = Math.min(buf.length, src.remaining());
+                src.get(buf, 0, n);
+
+                int w = 0;
+                for (int i = 0; i < n; i++) {
+                    byte b = buf[i];
+                    if (b == '\n' && lastWasCR) {
+                        lastWasCR = false;
+                        continue;
+                    }
+                    lastWasCR = b == '\r';
+                    buf[w++] = lastWasCR ? (byte) '\n' : b;
+                }
+
+                if (w > 0) {
+                    long start = PipelineStats.start();
+                    key.decode(buf, buf, 0, w);
+                    PipelineStats.DECIPHER.record(start, w);
+                    out.write(buf, 0, w);
+                    last = buf[w - 1];
+                }
+            }
+        }
+
+        if (last != '\n') {
+            out.write('\n');
         }
-        return sb.toString();
     }
 
     /**
-     * Load and validate a cipher key from a key file.
+     * Decipher raw ASCII-compatible bytes (e.g. memory-mapped file segments) straight
+     * into a channel such as a FileChannel or stdout. Runs of bytes up to the next '\r'
+     * are decoded in bulk (by the SIMD kernel if available) directly from the input
+     * buffer into a large, reused direct buffer, which is handed to the channel as-is:
+     * the only copy between a mapped file and the kernel write is the decode itself.
+     * Produces exactly the same bytes as decipher(List, OutputStream, CipherKey).
+     *
+     * @param in  Consecutive buffers holding the ciphered bytes.
+     * @param out Destination for the deciphered bytes (not closed).
+     * @param key An ASCII key (see CipherKey.isAscii).
+     * @throws IOException              if writing fails.
+     * @throws IllegalArgumentException if the key is not ASCII.
+     */
+    public void decipher(List<? extends ByteBuffer> in, WritableByteChannel out, CipherKey key) throws IOException {
+        if (!key.isAscii()) {
+            throw new IllegalArgumentException("Byte deciphering requires an ASCII key");
+        }
+        ByteBuffer buf = OUTPUT_BUFFER.get();
+        buf.clear();
+        byte newline = key.decodeByte((byte) '\n');
+        boolean lastWasCR = false;
+        byte last = '\n';
+
+        for (ByteBuffer segment : in) {
+            int pos = segment.position();
+            int limit = segment.limit();
+            while (pos < limit) {
+                long start = PipelineStats.start();
+                // Normalizing only drops bytes, so the output of [pos, end) fits in buf
+                int end = pos + Math.min(limit - pos, buf.remaining());
+                int from = pos;
+                int w = buf.position();
+                while (pos < end) {
+                    if (lastWasCR) {
+                        lastWasCR = false;
+                        if (segment.get(pos) == '\n') {
+                            pos++;
+                            continue;
+                        }
+                    }
+                    int stop = key.decodeUntilCR(segment, pos, end, buf, w);
+                    w += stop - pos;
+                    pos = stop;
+                    if (pos < end) {
+                        buf.put(w++, newline);
+                        pos++;
+                        lastWasCR = true;
+                    }
+                }
+                PipelineStats.DECIPHER.record(start, end - from);
+
+                if (w > buf.position()) {
+                    last = buf.get(w - 1);
+                    buf.position(w);
+                }
+                if (!buf.hasRemaining()) {
+                    drain(buf, out);
+                }
+            }
+        }
+
+        if (last != '\n') {
+            if (!buf.hasRemaining()) {
+                drain(buf, out);
+            }
+            buf.put((byte) '\n');
+        }
+        drain(buf, out);
+    }
+
+    private static void drain(ByteBuffer buf, WritableByteChannel out) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+        buf.clear();
+    }
+
+    /**
+     * Encipher everything from a reader into a writer using an already loaded key.
+     * Works in fixed-size chunks like decipher; the text is copied as-is apart
+     * from the substitution. Neither stream is closed; the writer is not flushed.
+     */
+    public void encipher(Reader in, Writer out, CipherKey key) throws IOException {
+        transform(in, out, key, true);
+    }
+
+    /**
+     * Encipher raw ASCII-compatible bytes straight into an output stream, one chunk
+     * at a time, without decoding to chars. Unlike the byte decipher path nothing is
+     * normalized: every byte outside the key is copied unchanged.
+     *
+     * @param in  Plain text bytes (not closed).
+     * @param out Destination for the ciphered bytes (not flushed or closed).
+     * @param key An ASCII key (see CipherKey.isAscii).
+     * @throws IOException              if reading or writing fails.
+     * @throws IllegalArgumentException if the key is not ASCII.
+     */
+    public void encipher(InputStream in, OutputStream out, CipherKey key) throws IOException {
+        if (!key.isAscii()) {
+            throw new IllegalArgumentException("Byte enciphering requires an ASCII key");
+        }
+        byte[] buf = new byte[CHUNK_SIZE];
+        int n;
+        while ((n = in.read(buf, 0, buf.length)) != -1) {
+            long start = PipelineStats.start();
+            key.encode(buf, buf, 0, n);
+            PipelineStats.ENCIPHER.record(start, n);
+            out.write(buf, 0, n);
+        }
+    }
+
+    /**
+     * Load and validate a cipher key from a key file, either text or compiled.
+     * Returns the cached key if the file has not changed since it was last loaded.
      *
      * @param keyFilePath Path or filename.
      * @return CipherKey mapping cipher->actual.
@@ -54,12 +452,89 @@ public class Cipher {
      * @throws IllegalArgumentException if invalid key format.
      */
     public CipherKey loadKey(String keyFilePath) throws IOException {
+        long start = PipelineStats.start();
+        CipherKey key = loadCachedKey(keyFilePath);
+        PipelineStats.LOAD_KEY.record(start, 0);
+        return key;
+    }
+
+    private CipherKey loadCachedKey(String keyFilePath) throws IOException {
         Path path = Paths.get(keyFilePath);
 
         // If the provided path doesn't exist, try common expected location: ./ciphers/<name>
         if (!Files.exists(path)) {
             path = Paths.get("ciphers").resolve(keyFilePath);
         }
+        path = path.toAbsolutePath().normalize();
+
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        long modified = attrs.lastModifiedTime().toMillis();
+        long size = attrs.size();
+
+        boolean stale;
+        synchronized (keyCache) {
+            CachedKey cached = keyCache.get(path);
+            if (cached != null && cached.modified == modified && cached.size == size) {
+                keyCacheHits.incrementAndGet();
+                return cached.key;
+            }
+            stale = cached != null;
+        }
+
+        if (stale) {
+            keyCacheReloads.incrementAndGet();
+        } else {
+            keyCacheMisses.incrementAndGet();
+        }
+
+        CipherKey key = parseKey(path);
+        if (keyCacheSize > 0) {
+            synchronized (keyCache) {
+                keyCache.put(path, new CachedKey(key, modified, size));
+            }
+        }
+        return key;
+    }
+
+    /** Number of loadKey calls answered from the cache. */
+    public long getKeyCacheHits() {
+        return keyCacheHits.get();
+    }
+
+    /** Number of loadKey calls for a key that was not cached. */
+    public long getKeyCacheMisses() {
+        return keyCacheMisses.get();
+    }
+
+    /** Number of loadKey calls that re-read a cached key because its file changed. */
+    public long getKeyCacheReloads() {
+        return keyCacheReloads.get();
+    }
+
+    /** Drop every cached key. */
+    public void clearKeyCache() {
+        synchronized (keyCache) {
+            keyCache.clear();
+        }
+    }
+
+    /**
+     * Compiles a key file into the binary format read by CompiledKey, so later loads
+     * skip parsing and validation.
+     *
+     * @param keyFilePath Path or filename of the (text) key file.
+     * @param out         Where to write the compiled key, conventionally a "*.tkey" file.
+     * @throws IOException              if the key cannot be read or written.
+     * @throws IllegalArgumentException if the key file is invalid.
+     */
+    public void compileKey(String keyFilePath, WritableByteChannel out) throws IOException {
+        CompiledKey.write(loadKey(keyFilePath), out);
+    }
+
+    private CipherKey parseKey(Path path) throws IOException {
+        if (CompiledKey.isCompiled(path)) {
+            return CompiledKey.read(path);
+        }
 
         List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
         if (lines.size() < 2) {
@@ -71,19 +546,84 @@ public class Cipher {
 
         validateKeyStrings(actual, cipher);
 
-        Map<Character, Character> cipherToActual = new HashMap<>();
-        for (int i = 0; i < actual.length(); i++) {
-            cipherToActual.put(cipher.charAt(i), actual.charAt(i));
+        return new CipherKey(cipher.codePoints().toArray(), actual.codePoints().toArray());
+    }
+
+    /**
+     * Decodes (or encodes) chars[from, to) in place, splitting in half until a chunk is small enough.
+     */
+    private static final class DecodeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final CipherKey key;
+        private final boolean encode;
+        private final char[] chars;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+
+        DecodeTask(CipherKey key, boolean encode, char[] chars, int from, int to, int chunkSize) {
+            this.key = key;
+            this.encode = encode;
+            this.chars = chars;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                apply(from, to);
+                return;
+            }
+            int mid = splitPoint(chars, from + (to - from) / 2);
+            if (mid >= to) {
+                apply(from, to);
+                return;
+            }
+            invokeAll(new DecodeTask(key, encode, chars, from, mid, chunkSize),
+                    new DecodeTask(key, encode, chars, mid, to, chunkSize));
         }
 
-        return new CipherKey(cipherToActual);
+        private void apply(int from, int to) {
+            if (encode) {
+                key.encode(chars, chars, from, to - from);
+            } else {
+                key.decode(chars, chars, from, to - from);
+            }
+        }
+    }
+
+    /**
+     * Moves a chunk boundary forward by one if it would fall inside a surrogate pair.
+     */
+    static int splitPoint(char[] chars, int mid) {
+        if (mid > 0 && mid < chars.length
+                && Character.isHighSurrogate(chars[mid - 1]) && Character.isLowSurrogate(chars[mid])) {
+            return mid + 1;
+        }
+        return mid;
+    }
+
+    private static final class CachedKey {
+        final CipherKey key;
+        final long modified;
+        final long size;
+
+        CachedKey(CipherKey key, long modified, long size) {
+            this.key = key;
+            this.modified = modified;
+            this.size = size;
+        }
     }
 
     /**
      * Validate that the key strings are usable:
-     * - Same length
+     * - Same length (in code points)
      * - Non-empty
-     * - No duplicate characters on either line
+     * - No unpaired surrogates
+     * - No duplicate code points on either line
      */
     void validateKeyStrings(String actual, String cipher) {
         if (actual == null || cipher == null) {
@@ -92,9 +632,33 @@ public class Cipher {
         if (actual.isEmpty() || cipher.isEmpty()) {
             throw new IllegalArgumentException("Invalid key file: lines cannot be empty.");
         }
-        if (actual.length() != cipher.length()) {
+        int actualLength = checkCodePoints(actual, "line 1");
+        int cipherLength = checkCodePoints(cipher, "line 2");
+        if (actualLength != cipherLength) {
             throw new IllegalArgumentException("Invalid key file: lines must be the same length.");
         }
+    }
 
+    /**
+     * Returns the number of code points in a key line, rejecting unpaired surrogates and
+     * duplicates in a single pass (a bit per code point seen).
+     */
+    private static int checkCodePoints(String line, String name) {
+        BitSet seen = new BitSet();
+        int count = 0;
+        for (int i = 0; i < line.length(); ) {
+            int cp = line.codePointAt(i);
+            if (Character.getType(cp) == Character.SURROGATE) {
+                throw new IllegalArgumentException("Invalid key file: unpaired surrogate in " + name + ".");
+            }
+            if (seen.get(cp)) {
+                throw new IllegalArgumentException("Invalid key file: duplicate character '"
+                        + new String(Character.toChars(cp)) + "' in " + name + ".");
+            }
+            seen.set(cp);
+            count++;
+            i += Character.charCount(cp);
+        }
+        return count;
     }
 }
@@ -1,28 +1,570 @@
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.Map;
 
 /**
- * Immutable cipher key mapping.
+ * Immutable cipher key mapping, safe to share between threads.
  *
- * The mapping is cipherCharacter -> actualCharacter
+ * The mapping is cipherCharacter -> actualCharacter, over Unicode code points,
+ * so alphabets may include supplementary characters such as emoji.
+ *
+ * The mapping is compiled once into primitive lookup tables so decoding never
+ * boxes a character. Keys whose cipher characters all fit in Latin-1 use a dense
+ * char[] indexed by the character; wider alphabets use a two-level page table
+ * (the high bits of a code point select a 256-entry page, the low bits index it),
+ * so lookups stay O(1) while only the pages a key actually uses are allocated.
+ * The inverse mapping (actualCharacter -> cipherCharacter) is compiled the same
+ * way and backs the encode methods.
+ *
+ * Byte decoding of ASCII keys uses the SIMD VectorDecoder when the JVM was started
+ * with --add-modules jdk.incubator.vector and the CPU has 512-bit byte vectors
+ * (disable with -Dtopsecret.vector=false); otherwise it uses the scalar table.
+ * VectorDecoder is built in its own source set (src/vector/java), the only code
+ * compiled against the incubating module, and is looked up here by name.
  */
 public class CipherKey {
 
-    private Map<Character, Character> cipherToActual;
+    /** Cipher characters below this value are decoded through the dense table. */
+    static final int DENSE_LIMIT = 256;
+
+    /** Number of code points per page of the page table. */
+    static final int PAGE_SIZE = 256;
+
+    private static final int PAGE_SHIFT = 8;
+
+    // Makes a VectorDecoder for an ASCII table; null if it cannot be used in this JVM
+    private static final Constructor<?> VECTOR_DECODER = vectorDecoder();
+
+    /** True if the Vector API byte decoder can be used in this JVM. */
+    static final boolean VECTOR_AVAILABLE = VECTOR_DECODER != null;
+
+    // Built on first use unless the key was created from a map. Racing threads may each
+    // build an equal copy; the volatile write publishes whichever wins.
+    private volatile Map<Character, Character> cipherToActual;
+
+    // cipher -> actual
+    private final Table decodeTable;
+
+    // actual -> cipher
+    private final Table encodeTable;
+
+    // Built on first use
+    private volatile String fingerprint;
 
     public CipherKey(Map<Character, Character> cipherToActual) {
+        this(toCodePoints(cipherToActual.keySet()), toCodePoints(cipherToActual.values()));
         this.cipherToActual = Map.copyOf(cipherToActual);
     }
 
+    /**
+     * Builds a key from code points: cipherCodePoints[i] decodes to actualCodePoints[i].
+     * Callers are expected to have rejected duplicates (see Cipher.validateKeyStrings).
+     */
+    public CipherKey(int[] cipherCodePoints, int[] actualCodePoints) {
+        if (cipherCodePoints.length != actualCodePoints.length) {
+            throw new IllegalArgumentException("Cipher and actual code points must have the same length");
+        }
+        int[][] decode = sortPairs(cipherCodePoints, actualCodePoints);
+        int[][] encode = sortPairs(actualCodePoints, cipherCodePoints);
+        decodeTable = new Table(decode[0], decode[1]);
+        encodeTable = new Table(encode[0], encode[1]);
+    }
+
+    /**
+     * Builds a key straight from precompiled tables (see CompiledKey), without any map.
+     * cipherCodePoints and actualCodePoints must be sorted; actualForCipher[i] is what
+     * cipherCodePoints[i] decodes to, cipherForActual[i] is what actualCodePoints[i] encodes to.
+     * The arrays are used as-is and must not be modified afterwards.
+     */
+    CipherKey(int[] cipherCodePoints, int[] actualForCipher, int[] actualCodePoints, int[] cipherForActual) {
+        decodeTable = new Table(cipherCodePoints, actualForCipher);
+        encodeTable = new Table(actualCodePoints, cipherForActual);
+    }
+
     /**
      * Decode a single character using the cipher mapping.
-     * If the character is not in the mapping, it is returned unchanged.
+     * If the character is not in the mapping, it is returned unchanged, as is a
+     * character that decodes to a supplementary code point (see decodeCodePoint).
      */
     public char decode(char c) {
-        Character mapped = cipherToActual.get(c);
-        return mapped == null ? c : mapped;
+        return decodeTable.map(c);
+    }
+
+    /**
+     * Decode a single code point using the cipher mapping.
+     * If the code point is not in the mapping, it is returned unchanged.
+     */
+    public int decodeCodePoint(int codePoint) {
+        return decodeTable.map(codePoint);
+    }
+
+    /**
+     * Decode len characters of src starting at off into dst at the same offsets.
+     * src and dst may be the same array. A surrogate pair is decoded as one code point,
+     * so the range should not split a pair.
+     *
+     * @throws IllegalStateException if the key is not width-preserving (see isWidthPreserving).
+     */
+    public void decode(char[] src, char[] dst, int off, int len) {
+        decodeTable.map(src, dst, off, len);
+    }
+
+    /**
+     * Decode len characters of src starting at off into dst starting at dstOff. Works
+     * for every key; dst needs room for 2 * len characters, since a BMP character may
+     * decode to a surrogate pair. Returns the number of characters written.
+     */
+    public int decode(char[] src, int off, int len, char[] dst, int dstOff) {
+        return decodeTable.map(src, off, len, dst, dstOff);
+    }
+
+    /**
+     * Decode len bytes of src starting at off into dst at the same offsets.
+     * Only valid for ASCII keys (see isAscii); bytes outside ASCII are copied unchanged,
+     * so UTF-8 and Latin-1 encoded text is decoded correctly without building Strings.
+     */
+    public void decode(byte[] src, byte[] dst, int off, int len) {
+        decodeTable.map(src, dst, off, len);
+    }
+
+    /**
+     * Scalar table lookup behind decode(byte[], ...), used when no SIMD kernel is available.
+     */
+    void decodeScalar(byte[] src, byte[] dst, int off, int len) {
+        decodeTable.mapScalar(src, dst, off, len);
+    }
+
+    /**
+     * Decodes src from index from up to the first '\r' (or to) into dst starting at
+     * index at, and returns the index it stopped at. Both buffers are accessed by
+     * absolute index, so their positions do not move; dst must have room for to - from
+     * bytes. Only valid for ASCII keys (see isAscii).
+     */
+    int decodeUntilCR(ByteBuffer src, int from, int to, ByteBuffer dst, int at) {
+        return decodeTable.mapUntilCR(src, from, to, dst, at);
+    }
+
+    /**
+     * Scalar version of decodeUntilCR, used when no SIMD kernel is available.
+     */
+    int decodeUntilCRScalar(ByteBuffer src, int from, int to, ByteBuffer dst, int at) {
+        return decodeTable.mapUntilCRScalar(src, from, to, dst, at);
+    }
+
+    /**
+     * Decode one byte of ASCII-compatible text. Only valid for ASCII keys (see isAscii).
+     */
+    byte decodeByte(byte b) {
+        return b >= 0 ? decodeTable.ascii[b] : b;
+    }
+
+    /**
+     * Encipher a single character (the inverse of decode).
+     * If the character is not in the mapping, it is returned unchanged.
+     */
+    public char encode(char c) {
+        return encodeTable.map(c);
+    }
+
+    /**
+     * Encipher a single code point (the inverse of decodeCodePoint).
+     */
+    public int encodeCodePoint(int codePoint) {
+        return encodeTable.map(codePoint);
+    }
+
+    /**
+     * Encipher len characters of src starting at off into dst at the same offsets.
+     * src and dst may be the same array.
+     *
+     * @throws IllegalStateException if the key is not width-preserving (see isWidthPreserving).
+     */
+    public void encode(char[] src, char[] dst, int off, int len) {
+        encodeTable.map(src, dst, off, len);
+    }
+
+    /**
+     * Encipher len characters of src starting at off into dst starting at dstOff.
+     * dst needs room for 2 * len characters. Returns the number of characters written.
+     */
+    public int encode(char[] src, int off, int len, char[] dst, int dstOff) {
+        return encodeTable.map(src, off, len, dst, dstOff);
+    }
+
+    /**
+     * Encipher len bytes of src starting at off into dst at the same offsets.
+     * Only valid for ASCII keys (see isAscii).
+     */
+    public void encode(byte[] src, byte[] dst, int off, int len) {
+        encodeTable.map(src, dst, off, len);
+    }
+
+    /**
+     * Returns true if the key only maps ASCII characters to ASCII characters.
+     */
+    public boolean isAscii() {
+        return decodeTable.ascii != null;
+    }
+
+    /**
+     * Returns true if every cipher character is looked up through the dense Latin-1 table.
+     */
+    public boolean isDense() {
+        return decodeTable.dense != null;
     }
 
+    /**
+     * Returns true if the key never changes the length of a char sequence: BMP characters
+     * map to BMP characters and supplementary characters to supplementary characters.
+     * Only such keys can decode char arrays in place.
+     */
+    public boolean isWidthPreserving() {
+        return decodeTable.widthPreserving && encodeTable.widthPreserving;
+    }
+
+    /**
+     * Returns the mapping as chars.
+     *
+     * @throws IllegalStateException if the key contains supplementary characters.
+     */
     public Map<Character, Character> getCipherToActual() {
-        return cipherToActual;
+        Map<Character, Character> map = cipherToActual;
+        if (map == null) {
+            map = Map.copyOf(decodeTable.toMap());
+            cipherToActual = map;
+        }
+        return map;
+    }
+
+    /**
+     * Returns a hex SHA-256 digest of the mapping. Keys with the same mapping have the
+     * same fingerprint, however they were loaded.
+     */
+    public String fingerprint() {
+        String f = fingerprint;
+        if (f == null) {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            ByteBuffer pairs = ByteBuffer.allocate(8 * decodeTable.keys.length);
+            pairs.asIntBuffer().put(decodeTable.keys).put(decodeTable.values);
+            f = HexFormat.of().formatHex(digest.digest(pairs.array()));
+            fingerprint = f;
+        }
+        return f;
+    }
+
+    /**
+     * Returns true if byte decoding of this key runs on the SIMD kernel.
+     */
+    public boolean isVectorized() {
+        return decodeTable.vectorKernel != null;
+    }
+
+    /** Sorted cipher code points (shared, do not modify). */
+    int[] cipherCodePoints() {
+        return decodeTable.keys;
+    }
+
+    /** actualForCipher()[i] is what cipherCodePoints()[i] decodes to (shared, do not modify). */
+    int[] actualForCipher() {
+        return decodeTable.values;
+    }
+
+    /** Sorted actual code points (shared, do not modify). */
+    int[] actualCodePoints() {
+        return encodeTable.keys;
+    }
+
+    /** cipherForActual()[i] is what actualCodePoints()[i] encodes to (shared, do not modify). */
+    int[] cipherForActual() {
+        return encodeTable.values;
+    }
+
+    /**
+     * A byte decoder for an ASCII table (implemented by VectorDecoder).
+     */
+    interface ByteKernel {
+        void decode(byte[] src, byte[] dst, int off, int len);
+
+        /** See CipherKey.decodeUntilCR. */
+        int decodeUntilCR(ByteBuffer src, int from, int to, ByteBuffer dst, int at);
+    }
+
+    private static int[] toCodePoints(Collection<Character> chars) {
+        int[] codePoints = new int[chars.size()];
+        int n = 0;
+        for (char c : chars) {
+            codePoints[n++] = c;
+        }
+        return codePoints;
+    }
+
+    /**
+     * Returns {keys, values} sorted by key. If a key repeats, its last value wins.
+     */
+    private static int[][] sortPairs(int[] keys, int[] values) {
+        // key in the high half, index in the low half: sorts by key, then by position
+        long[] pairs = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            pairs[i] = ((long) keys[i] << 32) | i;
+        }
+        Arrays.sort(pairs);
+
+        int[] sortedKeys = new int[keys.length];
+        int[] sortedValues = new int[keys.length];
+        int n = 0;
+        for (long pair : pairs) {
+            int key = (int) (pair >>> 32);
+            int value = values[(int) pair];
+            if (n > 0 && sortedKeys[n - 1] == key) {
+                sortedValues[n - 1] = value;
+            } else {
+                sortedKeys[n] = key;
+                sortedValues[n] = value;
+                n++;
+            }
+        }
+        return new int[][] {Arrays.copyOf(sortedKeys, n), Arrays.copyOf(sortedValues, n)};
+    }
+
+    /**
+     * One direction of the mapping compiled into primitive tables.
+     */
+    private static final class Table {
+
+        // Dense table: dense[c] is the mapped character (identity if unmapped). Null unless
+        // every source is below DENSE_LIMIT and every target is a BMP character.
+        final char[] dense;
+
+        // Page table: pages[cp >>> 8][cp & 0xff] is the mapped code point. Pages without a
+        // mapped code point are null (identity), so sparse alphabets stay small. Null when dense.
+        final int[][] pages;
+
+        // Byte table for mappings that only map ASCII to ASCII. Null otherwise.
+        final byte[] ascii;
+
+        // SIMD kernel for the ascii table. Null if unavailable or the mapping is not ASCII.
+        final ByteKernel vectorKernel;
+
+        // Every source and target is a BMP character
+        final boolean bmp;
+
+        // BMP characters map to BMP characters and supplementary to supplementary
+        final boolean widthPreserving;
+
+        // The mapping itself: sorted source code points and what each maps to
+        final int[] keys;
+        final int[] values;
+
+        /**
+         * keys must be sorted; values[i] is what keys[i] maps to.
+         */
+        Table(int[] keys, int[] values) {
+            this.keys = keys;
+            this.values = values;
+            int max = keys.length == 0 ? 0 : keys[keys.length - 1];
+
+            boolean allBmp = true;
+            boolean sameWidth = true;
+            boolean allAscii = max < 128;
+            for (int i = 0; i < keys.length; i++) {
+                boolean keyBmp = Character.isBmpCodePoint(keys[i]);
+                boolean valueBmp = Character.isBmpCodePoint(values[i]);
+                allBmp &= keyBmp && valueBmp;
+                sameWidth &= keyBmp == valueBmp;
+                allAscii &= values[i] < 128;
+            }
+            bmp = allBmp;
+            widthPreserving = sameWidth;
+
+            if (max < DENSE_LIMIT && allBmp) {
+                dense = new char[DENSE_LIMIT];
+                for (int i = 0; i < DENSE_LIMIT; i++) {
+                    dense[i] = (char) i;
+                }
+                for (int i = 0; i < keys.length; i++) {
+                    dense[keys[i]] = (char) values[i];
+                }
+                pages = null;
+            } else {
+                dense = null;
+                pages = new int[(max >>> PAGE_SHIFT) + 1][];
+                for (int i = 0; i < keys.length; i++) {
+                    int p = keys[i] >>> PAGE_SHIFT;
+                    if (pages[p] == null) {
+                        pages[p] = new int[PAGE_SIZE];
+                        for (int k = 0; k < PAGE_SIZE; k++) {
+                            pages[p][k] = (p << PAGE_SHIFT) | k;
+                        }
+                    }
+                    pages[p][keys[i] & (PAGE_SIZE - 1)] = values[i];
+                }
+            }
+
+            if (allAscii) {
+                ascii = new byte[128];
+                for (int i = 0; i < 128; i++) {
+                    ascii[i] = (byte) dense[i];
+                }
+            } else {
+                ascii = null;
+            }
+            vectorKernel = ascii != null && VECTOR_AVAILABLE ? newVectorKernel(ascii) : null;
+        }
+
+        Map<Character, Character> toMap() {
+            if (!bmp) {
+                throw new IllegalStateException("Key contains supplementary characters");
+            }
+            Map<Character, Character> map = new HashMap<>();
+            for (int i = 0; i < keys.length; i++) {
+                map.put((char) keys[i], (char) values[i]);
+            }
+            return map;
+        }
+
+        int map(int cp) {
+            if (dense != null) {
+                return cp >= 0 && cp < DENSE_LIMIT ? dense[cp] : cp;
+            }
+            int p = cp >>> PAGE_SHIFT;
+            int[] page = p < pages.length ? pages[p] : null;
+            return page == null ? cp : page[cp & (PAGE_SIZE - 1)];
+        }
+
+        char map(char c) {
+            if (dense != null) {
+                return c < DENSE_LIMIT ? dense[c] : c;
+            }
+            int mapped = map((int) c);
+            return Character.isBmpCodePoint(mapped) ? (char) mapped : c;
+        }
+
+        void map(char[] src, char[] dst, int off, int len) {
+            int end = off + len;
+            if (dense != null) {
+                char[] table = dense;
+                for (int i = off; i < end; i++) {
+                    char c = src[i];
+                    dst[i] = c < DENSE_LIMIT ? table[c] : c;
+                }
+            } else if (bmp) {
+                for (int i = off; i < end; i++) {
+                    dst[i] = (char) map((int) src[i]);
+                }
+            } else if (widthPreserving) {
+                for (int i = off; i < end; i++) {
+                    char c = src[i];
+                    if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(src[i + 1])) {
+                        int mapped = map(Character.toCodePoint(c, src[i + 1]));
+                        dst[i] = Character.highSurrogate(mapped);
+                        dst[++i] = Character.lowSurrogate(mapped);
+                    } else {
+                        dst[i] = (char) map((int) c);
+                    }
+                }
+            } else {
+                throw new IllegalStateException("Key changes the length of the text; decode into a separate buffer");
+            }
+        }
+
+        int map(char[] src, int off, int len, char[] dst, int dstOff) {
+            int end = off + len;
+            int w = dstOff;
+            if (dense != null) {
+                char[] table = dense;
+                for (int i = off; i < end; i++) {
+                    char c = src[i];
+                    dst[w++] = c < DENSE_LIMIT ? table[c] : c;
+                }
+                return len;
+            }
+            for (int i = off; i < end; i++) {
+                char c = src[i];
+                int cp = c;
+                if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(src[i + 1])) {
+                    cp = Character.toCodePoint(c, src[++i]);
+                }
+                w += Character.toChars(map(cp), dst, w);
+            }
+            return w - dstOff;
+        }
+
+        void map(byte[] src, byte[] dst, int off, int len) {
+            if (ascii == null) {
+                throw new IllegalStateException("Byte decoding requires an ASCII key");
+            }
+            if (vectorKernel != null) {
+                vectorKernel.decode(src, dst, off, len);
+                return;
+            }
+            mapScalar(src, dst, off, len);
+        }
+
+        int mapUntilCR(ByteBuffer src, int from, int to, ByteBuffer dst, int at) {
+            if (ascii == null) {
+                throw new IllegalStateException("Byte decoding requires an ASCII key");
+            }
+            if (vectorKernel != null) {
+                return vectorKernel.decodeUntilCR(src, from, to, dst, at);
+            }
+            return mapUntilCRScalar(src, from, to, dst, at);
+        }
+
+        int mapUntilCRScalar(ByteBuffer src, int from, int to, ByteBuffer dst, int at) {
+            byte[] table = ascii;
+            int i = from;
+            for (; i < to; i++) {
+                byte b = src.get(i);
+                if (b == '\r') {
+                    break;
+                }
+                dst.put(at++, b >= 0 ? table[b] : b);
+            }
+            return i;
+        }
+
+        void mapScalar(byte[] src, byte[] dst, int off, int len) {
+            byte[] table = ascii;
+            int end = off + len;
+            for (int i = off; i < end; i++) {
+                byte b = src[i];
+                dst[i] = b >= 0 ? table[b] : b;
+            }
+        }
+    }
+
+    private static Constructor<?> vectorDecoder() {
+        if (!Boolean.parseBoolean(System.getProperty("topsecret.vector", "true"))) {
+            return null;
+        }
+        try {
+            Class.forName("jdk.incubator.vector.ByteVector");
+            Class<?> decoder = Class.forName("VectorDecoder");
+            if (!(Boolean) decoder.getDeclaredMethod("isUsable").invoke(null)) {
+                return null;
+            }
+            return decoder.getDeclaredConstructor(byte[].class);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private static ByteKernel newVectorKernel(byte[] ascii) {
+        try {
+            return (ByteKernel) VECTOR_DECODER.newInstance((Object) ascii);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create VectorDecoder", e);
+        }
     }
 }
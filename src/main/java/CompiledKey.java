@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Binary key format holding a CipherKey's ready-to-use tables, so loading a key
+ * is a memory map, a checksum and a bulk copy instead of parsing and validating
+ * the two-line text format.
+ *
+ * Layout (big-endian):
+ *  int   magic 0x89 'T' 'K' 'Y' (0x89 can't start a UTF-8 text key)
+ *  int   version
+ *  int   n, the number of cipher characters
+ *  int   m, the number of actual characters
+ *  long  CRC32 of everything after the header
+ *  int[n] cipher code points, sorted
+ *  int[n] actual code point for each cipher code point
+ *  int[m] actual code points, sorted
+ *  int[m] cipher code point for each actual code point
+ *
+ * VERSION is the only version read; recompile keys written in any other.
+ */
+public class CompiledKey {
+
+    static final int MAGIC = 0x89544b59;
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 24;
+
+    /** Conventional file extension of compiled keys. */
+    public static final String EXTENSION = ".tkey";
+
+    private CompiledKey() {
+    }
+
+    /**
+     * Returns true if the file starts with the compiled key magic number.
+     */
+    public static boolean isCompiled(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) != -1) {
+                // keep reading until 4 bytes or end of file
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Memory-maps a compiled key and builds the CipherKey from its tables.
+     *
+     * @throws IllegalArgumentException if the file is not a valid compiled key.
+     */
+    public static CipherKey read(Path path) throws IOException {
+        MappedByteBuffer data;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid compiled key: bad size.");
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (data.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Invalid compiled key: bad magic number.");
+        }
+        int version = data.getInt(4);
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Invalid compiled key: unsupported version " + version
+                    + "; compile the key again.");
+        }
+        int n = data.getInt(8);
+        int m = data.getInt(12);
+        long checksum = data.getLong(16);
+        if (n < 0 || m < 0 || (long) data.capacity() - HEADER_SIZE != 2L * Integer.BYTES * ((long) n + m)) {
+            throw new IllegalArgumentException("Invalid compiled key: table sizes do not match the file size.");
+        }
+
+        ByteBuffer body = data.slice(HEADER_SIZE, data.capacity() - HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        if (crc.getValue() != checksum) {
+            throw new IllegalArgumentException("Invalid compiled key: checksum mismatch.");
+        }
+
+        int[] cipherCodePoints = new int[n];
+        int[] actualForCipher = new int[n];
+        int[] actualCodePoints = new int[m];
+        int[] cipherForActual = new int[m];
+        body.asIntBuffer().get(cipherCodePoints).get(actualForCipher).get(actualCodePoints).get(cipherForActual);
+
+        if (!isStrictlySorted(cipherCodePoints) || !isStrictlySorted(actualCodePoints)) {
+            throw new IllegalArgumentException("Invalid compiled key: tables are not sorted.");
+        }
+        if (!areCodePoints(cipherCodePoints, actualForCipher) || !areCodePoints(actualCodePoints, cipherForActual)) {
+            throw new IllegalArgumentException("Invalid compiled key: tables hold invalid code points.");
+        }
+        return new CipherKey(cipherCodePoints, actualForCipher, actualCodePoints, cipherForActual);
+    }
+
+    /**
+     * Writes a key in the compiled format to out (e.g. a FileHandler.AtomicOutput, so
+     * the file only appears once complete).
+     */
+    public static void write(CipherKey key, WritableByteChannel out) throws IOException {
+        int[] cipherCodePoints = key.cipherCodePoints();
+        int[] actualForCipher = key.actualForCipher();
+        int[] actualCodePoints = key.actualCodePoints();
+        int[] cipherForActual = key.cipherForActual();
+
+        int n = cipherCodePoints.length;
+        int m = actualCodePoints.length;
+        ByteBuffer data = ByteBuffer.allocate(HEADER_SIZE + 8 * n + 8 * m);
+        data.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(m).putLong(0);
+        data.asIntBuffer().put(cipherCodePoints).put(actualForCipher).put(actualCodePoints).put(cipherForActual);
+
+        CRC32 crc = new CRC32();
+        crc.update(data.array(), HEADER_SIZE, data.capacity() - HEADER_SIZE);
+        data.putLong(16, crc.getValue());
+
+        data.rewind();
+        while (data.hasRemaining()) {
+            out.write(data);
+        }
+    }
+
+    private static boolean isStrictlySorted(int[] codePoints) {
+        for (int i = 1; i < codePoints.length; i++) {
+            if (codePoints[i - 1] >= codePoints[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean areCodePoints(int[] keys, int[] values) {
+        for (int i = 0; i < keys.length; i++) {
+            if (!Character.isValidCodePoint(keys[i]) || !Character.isValidCodePoint(values[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,182 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Thin client for DecipherServer: forwards CLI arguments to a running daemon
+ * and copies its stdout/stderr frames to the local streams.
+ */
+public class DecipherClient {
+
+    /** Environment variable with a localhost TCP port to use instead of the Unix socket. */
+    static final String PORT_ENV = "TOPSECRET_PORT";
+
+    private DecipherClient() {
+    }
+
+    /**
+     * Forwards args to the daemon for the working directory, if one is running.
+     * Returns false (and prints nothing) if there is no daemon to talk to, or if the
+     * daemon would refuse the command (see Userinterface.remoteRejection), so that
+     * it runs in this JVM with the caller's own rights.
+     */
+    public static boolean forward(String[] args, PrintStream out, PrintStream err) {
+        if (Userinterface.remoteRejection(args) != null) {
+            return false;
+        }
+
+        String portSetting = System.getenv(PORT_ENV);
+        Integer port = parsePort(portSetting);
+        if (port == null && portSetting != null && !portSetting.isBlank()) {
+            err.println("Warning: ignoring " + PORT_ENV + "=" + portSetting
+                    + " (not a port number); using the daemon socket instead");
+        }
+        if (port != null) {
+            String token;
+            try {
+                token = FileHandler.readPrivateFile(DecipherServer.defaultTokenFile()).trim();
+            } catch (IOException e) {
+                return false;
+            }
+            return forward(args, out, err,
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), port), token);
+        }
+
+        Path socketFile = DecipherServer.defaultSocketFile();
+        if (!FileHandler.exists(socketFile)) {
+            return false;
+        }
+        return forward(args, out, err, UnixDomainSocketAddress.of(socketFile), null);
+    }
+
+    static boolean forward(String[] args, PrintStream out, PrintStream err, SocketAddress address) {
+        return forward(args, out, err, address, null);
+    }
+
+    /**
+     * Forwards args to the daemon at address, after token if the daemon needs one (TCP).
+     * Returns false if it cannot connect, the daemon is busy, or an argument cannot be
+     * sent (contains a tab or newline).
+     */
+    static boolean forward(String[] args, PrintStream out, PrintStream err, SocketAddress address, String token) {
+        for (String arg : args) {
+            if (arg == null || arg.contains("\t") || arg.contains("\n") || arg.contains("\r")) {
+                return false;
+            }
+        }
+
+        SocketChannel channel;
+        try {
+            channel = open(address);
+        } catch (IOException e) {
+            return false;
+        }
+
+        try (channel) {
+            String request = (token == null ? "" : token + "\n") + String.join("\t", args) + "\n";
+            channel.write(ByteBuffer.wrap(request.getBytes(StandardCharsets.UTF_8)));
+            if (!copyFrames(new BufferedInputStream(Channels.newInputStream(channel)), out, err)) {
+                return false;
+            }
+        } catch (IOException e) {
+            err.println("Error: lost connection to daemon: " + e.getMessage());
+        }
+        out.flush();
+        err.flush();
+        return true;
+    }
+
+    /**
+     * Returns the TCP port in value, or null if it is unset or not a port number (1-65535).
+     */
+    static Integer parsePort(String value) {
+        if (value == null || !value.trim().matches("\\d{1,5}")) {
+            return null;
+        }
+        int port = Integer.parseInt(value.trim());
+        return port >= 1 && port <= 65535 ? port : null;
+    }
+
+    static boolean isListening(SocketAddress address) {
+        try (SocketChannel channel = open(address)) {
+            return channel.isConnected();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static SocketChannel open(SocketAddress address) throws IOException {
+        SocketChannel channel = address instanceof UnixDomainSocketAddress
+                ? SocketChannel.open(StandardProtocolFamily.UNIX)
+                : SocketChannel.open();
+        try {
+            channel.connect(address);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Copies each frame's payload to out or err until "END" or the end of the stream.
+     * Returns false, having copied nothing, if the daemon answered "BUSY" instead.
+     *
+     * @throws IOException if a frame header is malformed or a frame is cut short.
+     */
+    static boolean copyFrames(InputStream in, PrintStream out, PrintStream err) throws IOException {
+        byte[] buf = new byte[8192];
+        String header = readHeader(in);
+        if ("BUSY".equals(header)) {
+            return false;
+        }
+        for (; header != null && !header.equals("END"); header = readHeader(in)) {
+            if (header.length() < 3 || header.charAt(1) != ' ') {
+                throw new IOException("Bad frame header: " + header);
+            }
+            PrintStream target = header.charAt(0) == 'E' ? err : out;
+            int remaining;
+            try {
+                remaining = Integer.parseInt(header.substring(2));
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad frame header: " + header, e);
+            }
+            if (remaining < 0) {
+                throw new IOException("Bad frame header: " + header);
+            }
+            while (remaining > 0) {
+                int n = in.read(buf, 0, Math.min(buf.length, remaining));
+                if (n == -1) {
+                    throw new IOException("Unexpected end of stream");
+                }
+                target.write(buf, 0, n);
+                remaining -= n;
+            }
+        }
+        return true;
+    }
+
+    private static String readHeader(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString(StandardCharsets.US_ASCII);
+    }
+}
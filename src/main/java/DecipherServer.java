@@ -0,0 +1,365 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resident daemon that keeps one ProgramControl (with its key cache and file index)
+ * warm and runs CLI requests for TopSecret clients.
+ *
+ * Protocol (UTF-8):
+ *  request:  one line with the CLI arguments separated by tabs (empty line = no arguments)
+ *  response: any number of frames "O <n>\n" or "E <n>\n" followed by n bytes of
+ *            stdout or stderr output, then "END\n"; or just "BUSY\n" if the daemon
+ *            has no room for another client, in which case the client runs the
+ *            command itself
+ *
+ * By default the daemon listens on a Unix domain socket .topsecret/topsecret.sock in
+ * the working directory. The socket is created owner-only (0600) inside an owner-only
+ * directory (0700), so only the daemon's owner can connect. It can also listen on a
+ * localhost TCP port, which every local user can reach; there a client must first send
+ * the token that the daemon writes to the owner-only file .topsecret/token.
+ *
+ * Requests run with the daemon owner's rights, so the daemon only accepts commands that
+ * stay inside the working directory: commands that read or write arbitrary files
+ * (--encipher, --compile-key, --recover-key, --output) are refused, and key paths must be
+ * relative and must not leave the working directory. The client runs such commands in
+ * its own JVM instead of forwarding them (see Userinterface.remoteRejection).
+ * Clients are handled by CLIENT_THREADS threads, and at most MAX_WAITING_CLIENTS more
+ * wait for one; any further client is answered "BUSY" at once rather than queued behind
+ * long decodes. A client that does not send its request line within the request
+ * timeout, or sends one longer than MAX_REQUEST_BYTES, is disconnected, so idle
+ * connections cannot hold on to the handler threads.
+ */
+public class DecipherServer implements Closeable {
+
+    /** Default socket file, relative to the working directory (next to data/). */
+    static final String SOCKET_NAME = "topsecret.sock";
+
+    /** Owner-only directory for the socket and the TCP token, relative to the working directory. */
+    static final String RUNTIME_DIR = ".topsecret";
+
+    /** File holding the token TCP clients must send first. */
+    static final String TOKEN_NAME = "token";
+
+    /** Time a client has to send its request line. */
+    static final long DEFAULT_REQUEST_TIMEOUT_MILLIS = 10_000;
+
+    /** Longest request line accepted, in bytes. */
+    static final int MAX_REQUEST_BYTES = 1 << 16;
+
+    /** Threads handling clients: twice the cores, so clients blocked on I/O leave room for decoding. */
+    static final int CLIENT_THREADS = 2 * Runtime.getRuntime().availableProcessors();
+
+    /** Accepted clients that may wait for a handler thread before others are turned away. */
+    static final int MAX_WAITING_CLIENTS = 4 * CLIENT_THREADS;
+
+    private static final byte[] BUSY = "BUSY\n".getBytes(StandardCharsets.US_ASCII);
+
+    // Closes connections whose request line is overdue
+    private static final ScheduledExecutorService DEADLINES = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "topsecret-deadlines");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final ProgramControl control;
+    private final ServerSocketChannel server;
+    private final Path socketFile;
+    private final Path tokenFile;
+    private final String token;
+    private final ExecutorService clients;
+    private volatile long requestTimeoutMillis = DEFAULT_REQUEST_TIMEOUT_MILLIS;
+
+    private DecipherServer(ProgramControl control, ServerSocketChannel server, Path socketFile,
+                           Path tokenFile, String token, ExecutorService clients) {
+        this.control = control;
+        this.server = server;
+        this.socketFile = socketFile;
+        this.tokenFile = tokenFile;
+        this.token = token;
+        this.clients = clients;
+    }
+
+    /**
+     * Binds a Unix domain socket at socketFile, readable and writable by its owner only.
+     * A missing parent directory is created owner-only. A stale socket file left by a
+     * daemon that is no longer running is replaced.
+     *
+     * @throws IOException if another daemon is already listening there, or the parent
+     *                     directory is accessible to other users.
+     */
+    public static DecipherServer unixSocket(ProgramControl control, Path socketFile) throws IOException {
+        return unixSocket(control, socketFile, newClientExecutor());
+    }
+
+    /**
+     * Like unixSocket(control, socketFile), with clients handled on the given executor.
+     * Clients it rejects are answered "BUSY".
+     */
+    static DecipherServer unixSocket(ProgramControl control, Path socketFile, ExecutorService clients)
+            throws IOException {
+        FileHandler.createPrivateDirectory(socketFile.toAbsolutePath().getParent());
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socketFile);
+        if (FileHandler.exists(socketFile)) {
+            if (DecipherClient.isListening(address)) {
+                throw new IOException("A daemon is already running on " + socketFile);
+            }
+            FileHandler.deleteIfExists(socketFile);
+        }
+
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(address);
+        try {
+            FileHandler.restrictToOwner(socketFile);
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        return new DecipherServer(control, server, socketFile, null, null, clients);
+    }
+
+    /**
+     * Binds a TCP socket on the loopback interface only, with a new token in the default token file.
+     */
+    public static DecipherServer tcp(ProgramControl control, int port) throws IOException {
+        return tcp(control, port, defaultTokenFile());
+    }
+
+    /**
+     * Binds a TCP socket on the loopback interface only. Clients must send the token
+     * written (owner-only) to tokenFile before their request.
+     */
+    static DecipherServer tcp(ProgramControl control, int port, Path tokenFile) throws IOException {
+        FileHandler.createPrivateDirectory(tokenFile.toAbsolutePath().getParent());
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        String token = HexFormat.of().formatHex(secret);
+        FileHandler.writePrivateFile(tokenFile, token + "\n");
+
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        } catch (IOException e) {
+            server.close();
+            FileHandler.deleteIfExists(tokenFile);
+            throw e;
+        }
+        return new DecipherServer(control, server, null, tokenFile, token, newClientExecutor());
+    }
+
+    private static ExecutorService newClientExecutor() {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(CLIENT_THREADS, CLIENT_THREADS,
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(MAX_WAITING_CLIENTS), r -> {
+                    Thread t = new Thread(r, "topsecret-client-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    static Path defaultSocketFile() {
+        return Paths.get(RUNTIME_DIR, SOCKET_NAME);
+    }
+
+    static Path defaultTokenFile() {
+        return Paths.get(RUNTIME_DIR, TOKEN_NAME);
+    }
+
+    /**
+     * Sets how long a client may take to send its request line before it is disconnected.
+     */
+    public void setRequestTimeout(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Request timeout must be positive");
+        }
+        this.requestTimeoutMillis = millis;
+    }
+
+    public SocketAddress getAddress() throws IOException {
+        return server.getLocalAddress();
+    }
+
+    /**
+     * Accepts clients until close() is called.
+     */
+    public void serve() throws IOException {
+        while (server.isOpen()) {
+            SocketChannel client;
+            try {
+                client = server.accept();
+            } catch (AsynchronousCloseException e) {
+                return;
+            }
+            try {
+                clients.execute(() -> handle(client));
+            } catch (RejectedExecutionException e) {
+                reject(client);
+            }
+        }
+    }
+
+    /**
+     * Tells a client the daemon is busy. Its request is never read, so closing straight
+     * away could reset the connection before the reply arrives; the client closes first.
+     */
+    private void reject(SocketChannel client) {
+        try {
+            client.write(ByteBuffer.wrap(BUSY));
+            client.shutdownOutput();
+        } catch (IOException e) {
+            // Client went away
+        }
+        DEADLINES.schedule(() -> closeQuietly(client), requestTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        clients.shutdown();
+        if (socketFile != null) {
+            FileHandler.deleteIfExists(socketFile);
+        }
+        if (tokenFile != null) {
+            FileHandler.deleteIfExists(tokenFile);
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        try (client) {
+            // Blocking channel streams ignore socket timeouts, so the deadline closes the channel
+            ScheduledFuture<?> deadline = DEADLINES.schedule(() -> closeQuietly(client),
+                    requestTimeoutMillis, TimeUnit.MILLISECONDS);
+            String line;
+            try {
+                InputStream request = new BufferedInputStream(Channels.newInputStream(client));
+                if (token != null) {
+                    String sent = readRequestLine(request);
+                    if (sent == null || !MessageDigest.isEqual(sent.getBytes(StandardCharsets.US_ASCII),
+                            token.getBytes(StandardCharsets.US_ASCII))) {
+                        return;
+                    }
+                }
+                line = readRequestLine(request);
+            } finally {
+                deadline.cancel(false);
+            }
+            if (line == null || !client.isOpen()) {
+                return;
+            }
+            String[] args = line.isEmpty() ? new String[0] : line.split("\t", -1);
+
+            OutputStream raw = new BufferedOutputStream(Channels.newOutputStream(client));
+            PrintStream out = new PrintStream(new FrameOutputStream(raw, 'O'), false, StandardCharsets.UTF_8);
+            PrintStream err = new PrintStream(new FrameOutputStream(raw, 'E'), false, StandardCharsets.UTF_8);
+
+            String rejection = Userinterface.remoteRejection(args);
+            if (rejection != null) {
+                err.println("Error: " + rejection);
+            } else {
+                new Userinterface(control, out, err).run(args);
+            }
+
+            out.flush();
+            err.flush();
+            raw.write("END\n".getBytes(StandardCharsets.US_ASCII));
+            raw.flush();
+        } catch (IOException e) {
+            // Client went away; nothing left to report to
+        }
+    }
+
+    /**
+     * Reads one UTF-8 line of at most MAX_REQUEST_BYTES.
+     * Returns null if the client closed the connection before sending a whole line.
+     *
+     * @throws IOException if the line is too long.
+     */
+    static String readRequestLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                return null;
+            }
+            if (line.size() == MAX_REQUEST_BYTES) {
+                throw new IOException("Request line longer than " + MAX_REQUEST_BYTES + " bytes");
+            }
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    private static void closeQuietly(SocketChannel client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    /**
+     * Wraps every write in an "O <n>\n" or "E <n>\n" frame header.
+     */
+    private static class FrameOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final char channel;
+
+        FrameOutputStream(OutputStream out, char channel) {
+            this.out = out;
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (out) {
+                out.write((channel + " " + len + "\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -1,9 +1,47 @@
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * FileHandler (Neel Naglapur)
@@ -13,63 +51,692 @@ import java.util.Arrays;
  * exists directly in the working directory.
  *
  * Responsibility:
- * This class is the ONLY part of the program that accesses files.
+ * This class is the ONLY part of the program that accesses files. That includes
+ * the daemon's owner-only runtime files (socket directory and TCP token) and
+ * ResultCache's spill files, which are handled through the static helpers below.
+ *
+ * The sorted list of .txt files is cached. It is kept up to date incrementally
+ * from a WatchService on the data folder, and rebuilt whenever the folder's
+ * last-modified time changes without a matching event (or if no WatchService
+ * is available). A rebuild streams the folder through a DirectoryStream and
+ * only stats the entries whose names end in .txt or .txt.gz, to skip folders
+ * named like data files, the same check the watch events go through.
+ *
+ * Data files may also be gzip-compressed (".txt.gz"). They are listed next to
+ * the plain ones and decompressed on the fly while reading, so a compressed file
+ * is never inflated in memory as a whole.
+ *
+ * Line ranges of plain files are read through a LineIndex, which is saved as a
+ * hidden sidecar file (".<name>.idx") in the data folder and rebuilt whenever
+ * the data file's last-modified time or size changes.
+ *
+ * Safe for concurrent use: the listing is only touched while holding the
+ * FileHandler's lock, each line index is built under a lock of its own, and
+ * every read opens its own stream or mapping.
  */
-public class FileHandler {
+public class FileHandler implements Closeable {
+
+    /** Files at least this large are read through memory mapping by default. */
+    static final long DEFAULT_MAP_THRESHOLD = 1L << 20;
+
+    /** Largest region mapped at once; bigger files are returned as several buffers. */
+    static final int MAP_SEGMENT_SIZE = 1 << 28;
+
+    /** Suffix of gzip-compressed data files. */
+    static final String GZIP_SUFFIX = ".txt.gz";
+
+    /** Coarsest folder timestamp granularity allowed for; see isRacy(). */
+    private static final long RACY_MILLIS = 100;
 
-    private File dataDir;
+    /** Buffer size of the gzip decompressor. */
+    static final int GZIP_BUFFER_SIZE = 1 << 16;
+
+    // Largest capacity readFile asks for up front (the usual array size limit)
+    private static final int MAX_CHARS = Integer.MAX_VALUE - 8;
+
+    private final File dataDir;
+    private volatile long mapThreshold = DEFAULT_MAP_THRESHOLD;
+
+    // Cached, sorted, unmodifiable snapshot of the data files. Null until the first scan.
+    private List<String> index;
+    private long indexedDirModified;
+    private long indexedAt;
+    private WatchService watcher;
+
+    // Line indexes loaded in this process, by data file name. Each file is built
+    // under its own lock, so a slow build does not hold up listFiles or other files.
+    private final Map<String, LineIndex> lineIndexes = new ConcurrentHashMap<>();
+    private final Map<String, Object> lineIndexLocks = new ConcurrentHashMap<>();
 
     public FileHandler() {
-        dataDir = new File("data");
+        this(new File("data"));
+    }
+
+    private FileHandler(File dataDir) {
+        this.dataDir = dataDir;
         if (!dataDir.exists() || !dataDir.isDirectory()) {
             throw new IllegalStateException("data folder not found in working directory");
         }
     }
 
     /**
-     * Returns a sorted list of all .txt files in the data folder.
+     * Uses dataDir instead of the working directory's data folder (e.g. a test's own folder).
      */
-    public ArrayList<String> listFiles() {
-        ArrayList<String> result = new ArrayList<>();
+    static FileHandler forDirectory(File dataDir) {
+        return new FileHandler(dataDir);
+    }
+
+    /**
+     * Returns a sorted list of all .txt and .txt.gz files in the data folder.
+     * The list is an unmodifiable snapshot, so get(i) is O(1) and no filesystem
+     * listing happens unless the folder changed.
+     */
+    public synchronized List<String> listFiles() {
+        long start = PipelineStats.start();
+        List<String> files = currentIndex();
+        PipelineStats.LIST_FILES.record(start, 0);
+        return files;
+    }
+
+    private List<String> currentIndex() {
+        long dirModified = dataDir.lastModified();
+
+        if (index == null) {
+            startWatching();
+            rescan(dirModified);
+            return index;
+        }
+
+        boolean applied = applyWatchEvents();
+        if (dirModified != indexedDirModified || (!applied && isRacy())) {
+            if (!applied) {
+                rescan(dirModified);
+            }
+            indexedDirModified = dirModified;
+        }
+        return index;
+    }
+
+    /**
+     * Stops watching the data folder. The listing keeps working by polling its last-modified time.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+    }
+
+    private void startWatching() {
+        try {
+            watcher = dataDir.toPath().getFileSystem().newWatchService();
+            dataDir.toPath().register(watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException | UnsupportedOperationException e) {
+            // Fall back to polling the folder's last-modified time
+            watcher = null;
+        }
+    }
 
-        File[] allFiles = dataDir.listFiles();
-        if (allFiles == null) {
-            return result;
+    /**
+     * Applies pending create/delete events to the index.
+     * Returns true if any event was processed.
+     */
+    private boolean applyWatchEvents() {
+        if (watcher == null) {
+            return false;
         }
 
-        Arrays.sort(allFiles);
+        WatchKey key = watcher.poll();
+        if (key == null) {
+            return false;
+        }
 
-        for (File file : allFiles) {
-            if (file.isFile() && file.getName().endsWith(".txt")) {
-                result.add(file.getName());
+        ArrayList<String> updated = new ArrayList<>(index);
+        boolean overflow = false;
+        for (; key != null; key = watcher.poll()) {
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    overflow = true;
+                    continue;
+                }
+                String name = ((Path) event.context()).toString();
+                int pos = Collections.binarySearch(updated, name);
+                boolean isFile = isDataFile(dataDir.toPath().resolve(name));
+                if (isFile && pos < 0) {
+                    updated.add(-pos - 1, name);
+                } else if (!isFile && pos >= 0) {
+                    updated.remove(pos);
+                }
+            }
+            if (!key.reset()) {
+                overflow = true;
             }
         }
-        return result;
+
+        if (overflow) {
+            rescan(dataDir.lastModified());
+        } else {
+            index = Collections.unmodifiableList(updated);
+        }
+        return true;
+    }
+
+    private void rescan(long dirModified) {
+        ArrayList<String> result = new ArrayList<>();
+
+        // The name is checked first, so only entries that could be data files are stat'ed
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dataDir.toPath(), FileHandler::isDataFile)) {
+            for (Path entry : entries) {
+                result.add(entry.getFileName().toString());
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            // Unreadable folder: list nothing, as before
+            result.clear();
+        }
+        Collections.sort(result);
+
+        index = Collections.unmodifiableList(result);
+        indexedDirModified = dirModified;
+        indexedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns true if the last scan ran so soon after the folder last changed that a
+     * further change in the same timestamp tick would leave lastModified as it was.
+     * Until a scan runs after that tick, a listing with no watch events rescans.
+     */
+    private boolean isRacy() {
+        return indexedAt - indexedDirModified < RACY_MILLIS;
     }
 
     /**
      * Reads and returns the contents of a file in the data folder.
      */
     public String readFile(String filename) throws IOException {
+        long start = PipelineStats.start();
+        File file = getFile(filename);
+
+        // A plain file decodes to at most one char per byte, plus the final newline,
+        // so the builder is allocated once instead of growing (and copying) as it fills
+        int capacity = isCompressed(filename) ? Cipher.CHUNK_SIZE : (int) Math.min(file.length() + 1, MAX_CHARS);
+        StringBuilder content = new StringBuilder(capacity);
+        char[] buf = new char[Cipher.CHUNK_SIZE];
+        try (Reader reader = new LineNormalizingReader(openReader(file), false)) {
+            int n;
+            while ((n = reader.read(buf, 0, buf.length)) != -1) {
+                content.append(buf, 0, n);
+            }
+        }
+
+        PipelineStats.READ_FILE.record(start, content.length());
+        return content.toString();
+    }
+
+    /**
+     * Opens a file in the data folder for streaming.
+     * The returned reader produces exactly the same characters as readFile:
+     * line endings are normalized to "\n" and a non-empty file always ends with "\n".
+     * Compressed files are decompressed as they are read.
+     * The caller is responsible for closing it.
+     */
+    public Reader openFile(String filename) throws IOException {
+        File file = getFile(filename);
+
+        return new LineNormalizingReader(openReader(file), true);
+    }
+
+    /**
+     * Opens the raw bytes of a file in the data folder (decompressed if needed),
+     * without charset decoding or line-ending normalization.
+     * The caller is responsible for closing it.
+     */
+    public InputStream openStream(String filename) throws IOException {
+        File file = getFile(filename);
+        InputStream in = new FileInputStream(file);
+        if (!isCompressed(filename)) {
+            return in;
+        }
+        try {
+            return new GZIPInputStream(in, GZIP_BUFFER_SIZE);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens lines firstLine to lastLine (1-based, inclusive) of a file in the data folder.
+     * The reader produces the same characters readFile would for those lines, each
+     * ending in "\n"; lines past the end of the file are simply missing.
+     * Plain files seek to the nearest indexed line, so only the requested range
+     * (plus at most LineIndex.STRIDE - 1 lines) is read. Compressed files cannot
+     * seek and are read from the start up to the range.
+     * The caller is responsible for closing it.
+     */
+    public Reader openLines(String filename, long firstLine, long lastLine) throws IOException {
+        if (firstLine < 1 || lastLine < firstLine) {
+            throw new IllegalArgumentException("Invalid line range: " + firstLine + "-" + lastLine);
+        }
+        File file = getFile(filename);
+        long count = lastLine - firstLine + 1;
+
+        if (isCompressed(filename) || !isAsciiCompatible(Charset.defaultCharset())) {
+            return new LineRangeReader(new BufferedReader(openReader(file)), firstLine - 1, count);
+        }
+
+        LineIndex lines = lineIndex(filename, file.toPath());
+        if (firstLine > lines.getLineCount()) {
+            return Reader.nullReader();
+        }
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        channel.position(lines.checkpointOffset(firstLine));
+        BufferedReader reader = new BufferedReader(Channels.newReader(channel, Charset.defaultCharset()));
+        return new LineRangeReader(reader, firstLine - lines.checkpointLine(firstLine), count);
+    }
+
+    /**
+     * Returns the line index of a plain data file, loading it from its sidecar or
+     * building (and saving) it if it is missing or out of date.
+     */
+    LineIndex lineIndex(String filename, Path path) throws IOException {
+        LineIndex lines = lineIndexes.get(filename);
+        if (lines != null && lines.isCurrent(path)) {
+            return lines;
+        }
+
+        synchronized (lineIndexLocks.computeIfAbsent(filename, name -> new Object())) {
+            lines = lineIndexes.get(filename);
+            if (lines != null && lines.isCurrent(path)) {
+                return lines;
+            }
+
+            Path sidecar = path.resolveSibling("." + filename + ".idx");
+            lines = LineIndex.read(sidecar);
+            if (lines == null || !lines.isCurrent(path)) {
+                long start = PipelineStats.start();
+                lines = LineIndex.build(path);
+                PipelineStats.READ_FILE.record(start, Files.size(path));
+                try {
+                    lines.write(sidecar);
+                } catch (IOException e) {
+                    // Read-only data folder: keep the index in memory only
+                }
+            }
+            lineIndexes.put(filename, lines);
+            return lines;
+        }
+    }
+
+    /**
+     * Returns true if a data file is stored compressed.
+     */
+    public static boolean isCompressed(String filename) {
+        return filename.endsWith(GZIP_SUFFIX);
+    }
+
+    /**
+     * Returns the size in bytes of a file in the data folder (as stored on disk).
+     */
+    public long fileSize(String filename) throws IOException {
+        return getFile(filename).length();
+    }
+
+    /**
+     * Returns the last-modified time in milliseconds of a file in the data folder.
+     */
+    public long lastModified(String filename) throws IOException {
+        return getFile(filename).lastModified();
+    }
+
+    /**
+     * Returns true if a file is large enough that it should be read with mapFile
+     * rather than readFile/openFile. Compressed files are never mapped.
+     */
+    public boolean shouldMap(String filename) throws IOException {
+        return !isCompressed(filename) && fileSize(filename) >= mapThreshold;
+    }
+
+    public void setMapThreshold(long mapThreshold) {
+        this.mapThreshold = mapThreshold;
+    }
+
+    /**
+     * Memory-maps a file in the data folder read-only and returns its raw bytes.
+     * Files larger than MAP_SEGMENT_SIZE are split into consecutive buffers.
+     * No charset decoding or line-ending normalization is done here.
+     */
+    public List<MappedByteBuffer> mapFile(String filename) throws IOException {
+        long start = PipelineStats.start();
+        File file = getFile(filename);
+        if (isCompressed(filename)) {
+            throw new IllegalArgumentException("Compressed files cannot be mapped: " + filename);
+        }
+
+        List<MappedByteBuffer> segments = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long pos = 0; pos < size; pos += MAP_SEGMENT_SIZE) {
+                long length = Math.min(MAP_SEGMENT_SIZE, size - pos);
+                segments.add(channel.map(FileChannel.MapMode.READ_ONLY, pos, length));
+            }
+            PipelineStats.READ_FILE.record(start, size);
+        }
+        return segments;
+    }
+
+    /**
+     * Creates (or replaces) an output file in the data folder and opens it for writing.
+     * Only ".out" names are allowed, so outputs never show up in the .txt listing.
+     * The caller is responsible for closing the stream.
+     */
+    public OutputStream createOutputFile(String filename) throws IOException {
+        validateName(filename);
+        if (!filename.endsWith(".out")) {
+            throw new IllegalArgumentException("Invalid filename: must end with .out");
+        }
+        return new BufferedOutputStream(new FileOutputStream(new File(dataDir, filename)));
+    }
+
+    /**
+     * Creates a new data file in the data folder, e.g. for storing freshly enciphered
+     * text. Existing files are never overwritten. Everything is written to a hidden
+     * temporary file in the data folder that only becomes the data file when committed,
+     * so a failed write never leaves a truncated file to be listed, and a retry can
+     * succeed. Write through stream(), which compresses for a ".txt.gz" name.
+     * The caller must close the result.
+     *
+     * @throws FileAlreadyExistsException if the data file exists (now or at commit).
+     */
+    public AtomicOutput createAtomicDataFile(String filename) throws IOException {
+        validateFilename(filename);
+        Path target = dataDir.toPath().resolve(filename);
+        if (Files.exists(target)) {
+            throw new FileAlreadyExistsException(filename);
+        }
+        // Starts with a dot and ends in .tmp, so it is never listed as a data file
+        Path tmp = Files.createTempFile(dataDir.toPath(), "." + filename, ".tmp");
+        return new AtomicOutput(FileChannel.open(tmp, StandardOpenOption.WRITE), tmp, target,
+                isCompressed(filename), false);
+    }
+
+    /**
+     * Opens an output file anywhere on disk (e.g. for --output). Everything is written
+     * to a temporary file in the same folder, which only replaces the target when
+     * committed, so readers never see a partial file. The caller must close it.
+     */
+    public AtomicOutput createAtomicOutput(String path) throws IOException {
+        if (path == null || path.isBlank()) {
+            throw new IllegalArgumentException("Path cannot be null or blank");
+        }
+        Path target = Path.of(path).toAbsolutePath();
+        Path tmp = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+        try {
+            // Temp files are owner-only; give the result the permissions a normal new file would get
+            Files.setPosixFilePermissions(tmp, Files.exists(target)
+                    ? Files.getPosixFilePermissions(target)
+                    : PosixFilePermissions.fromString("rw-r--r--"));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system
+        }
+        return new AtomicOutput(FileChannel.open(tmp, StandardOpenOption.WRITE), tmp, target, false, true);
+    }
+
+    /**
+     * A file channel that is written under a temporary name and moved into place by commit.
+     * Closing without committing deletes the temporary file.
+     */
+    public static class AtomicOutput implements WritableByteChannel {
+        private final FileChannel channel;
+        private final Path tmp;
+        private final Path target;
+        private final boolean compress;
+        private final boolean replace;
+        private boolean committed;
+
+        /**
+         * @param compress Whether stream() gzip-compresses what is written to it.
+         * @param replace  Whether commit replaces an existing target (otherwise it fails).
+         */
+        AtomicOutput(FileChannel channel, Path tmp, Path target, boolean compress, boolean replace) {
+            this.channel = channel;
+            this.tmp = tmp;
+            this.target = target;
+            this.compress = compress;
+            this.replace = replace;
+        }
+
+        /**
+         * A buffered stream over the channel (compressing for ".txt.gz" data files).
+         * Close it before commit so everything it buffers is written.
+         */
+        public OutputStream stream() throws IOException {
+            OutputStream out = Channels.newOutputStream(channel);
+            return compress ? new GZIPOutputStream(out, GZIP_BUFFER_SIZE) : new BufferedOutputStream(out);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return channel.write(src);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        /**
+         * Closes the temporary file and atomically renames it to the target.
+         */
+        public void commit() throws IOException {
+            channel.close();
+            if (replace) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                try {
+                    // A hard link appears atomically and fails if the target exists; a rename would replace it
+                    Files.createLink(target, tmp);
+                    Files.delete(tmp);
+                } catch (UnsupportedOperationException e) {
+                    Files.move(tmp, target);
+                }
+            }
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                channel.close();
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    /**
+     * Opens a plain text file anywhere on disk (not just the data folder) for reading.
+     * Used as the input when enciphering. The caller is responsible for closing it.
+     */
+    public InputStream openPlainFile(String path) throws IOException {
+        if (path == null || path.isBlank()) {
+            throw new IllegalArgumentException("Path cannot be null or blank");
+        }
+        Path file = Path.of(path);
+        if (!Files.isRegularFile(file)) {
+            throw new IOException("File not found: " + path);
+        }
+        return Files.newInputStream(file);
+    }
+
+    /**
+     * Creates dir (and missing parents) readable by its owner only, e.g. for the daemon's
+     * socket and token. An existing directory is used as is if no other user can access it.
+     *
+     * @throws IOException if the existing directory is accessible to its group or others.
+     */
+    static void createPrivateDirectory(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            Files.createDirectories(dir, ownerOnly("rwx------"));
+            return;
+        }
+        try {
+            for (PosixFilePermission p : Files.getPosixFilePermissions(dir)) {
+                if (p.name().startsWith("GROUP") || p.name().startsWith("OTHERS")) {
+                    throw new IOException(dir + " must only be accessible by its owner (chmod 700)");
+                }
+            }
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system
+        }
+    }
+
+    /**
+     * Replaces file with a new one holding text (UTF-8), created readable by its owner only.
+     */
+    static void writePrivateFile(Path file, String text) throws IOException {
+        Files.deleteIfExists(file);
+        Files.createFile(file, ownerOnly("rw-------"));
+        Files.writeString(file, text, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates target from what is written to the result once committed, like
+     * createAtomicDataFile but anywhere on disk, and readable by its owner only (the
+     * temporary file's permissions are kept). Never replaces an existing target.
+     * The caller must close the result.
+     *
+     * @throws FileAlreadyExistsException if the target exists at commit.
+     */
+    static AtomicOutput createPrivateFile(Path target) throws IOException {
+        Path tmp = Files.createTempFile(target.toAbsolutePath().getParent(), "." + target.getFileName(), ".tmp");
+        return new AtomicOutput(FileChannel.open(tmp, StandardOpenOption.WRITE), tmp, target, false, false);
+    }
+
+    /**
+     * Reads a whole UTF-8 file written by writePrivateFile or createPrivateFile.
+     */
+    static String readPrivateFile(Path file) throws IOException {
+        return Files.readString(file, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the files in dir whose names end with suffix, with their sizes, in order
+     * of last modification (oldest first).
+     */
+    static Map<Path, Long> listBySuffix(Path dir, String suffix) throws IOException {
+        List<Path> files = new ArrayList<>();
+        Map<Path, Long> modified = new HashMap<>();
+        try (DirectoryStream<Path> found = Files.newDirectoryStream(dir, "*" + suffix)) {
+            for (Path file : found) {
+                files.add(file);
+                modified.put(file, Files.getLastModifiedTime(file).toMillis());
+            }
+        }
+        files.sort(Comparator.comparing(modified::get));
+
+        Map<Path, Long> sizes = new LinkedHashMap<>();
+        for (Path file : files) {
+            sizes.put(file, Files.size(file));
+        }
+        return sizes;
+    }
+
+    /**
+     * Makes an existing file (e.g. a freshly bound socket) readable and writable by its owner only.
+     */
+    static void restrictToOwner(Path file) throws IOException {
+        try {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system
+        }
+    }
+
+    static boolean exists(Path file) {
+        return Files.exists(file);
+    }
+
+    static void deleteIfExists(Path file) throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private static FileAttribute<?>[] ownerOnly(String permissions) {
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            return new FileAttribute<?>[0];
+        }
+        return new FileAttribute<?>[] {PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(permissions))};
+    }
+
+    private File getFile(String filename) throws IOException {
         validateFilename(filename);
 
         File file = new File(dataDir, filename);
         if (!file.exists() || !file.isFile()) {
             throw new IOException("File not found: " + filename);
         }
+        return file;
+    }
 
-        StringBuilder content = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                content.append(line).append("\n");
-            }
+    /**
+     * Opens a data file as text in the platform charset, decompressing it if needed.
+     */
+    private static Reader openReader(File file) throws IOException {
+        if (!isCompressed(file.getName())) {
+            return new FileReader(file);
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            return new InputStreamReader(new GZIPInputStream(in, GZIP_BUFFER_SIZE));
+        } catch (IOException e) {
+            in.close();
+            throw e;
         }
+    }
 
-        return content.toString();
+    /**
+     * Returns true if ASCII characters (in particular "\r" and "\n") are single bytes
+     * with the same values in charset, so byte offsets and byte decoding are safe.
+     */
+    static boolean isAsciiCompatible(Charset charset) {
+        return charset.equals(StandardCharsets.UTF_8)
+                || charset.equals(StandardCharsets.ISO_8859_1)
+                || charset.equals(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns true if bytes that an ASCII key leaves alone can be copied as they are
+     * instead of being decoded and encoded again: every byte of ISO-8859-1 and every
+     * byte of well-formed UTF-8. Not US-ASCII, where decoding turns bytes above 0x7f
+     * into U+FFFD and encoding writes them back as '?'.
+     */
+    static boolean passesBytesThrough(Charset charset) {
+        return charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean isDataFileName(String filename) {
+        return filename.endsWith(".txt") || filename.endsWith(GZIP_SUFFIX);
+    }
+
+    /**
+     * Returns true if path is listed as a data file: a regular file with a data file name.
+     * Both the rescan and the watch events use this, so they always agree.
+     */
+    private static boolean isDataFile(Path path) {
+        return isDataFileName(path.getFileName().toString()) && Files.isRegularFile(path);
     }
 
     private void validateFilename(String filename) {
+        validateName(filename);
+
+        // Only allow .txt and .txt.gz
+        if (!isDataFileName(filename)) {
+            throw new IllegalArgumentException("Invalid filename: must end with .txt or .txt.gz");
+        }
+    }
+
+    private void validateName(String filename) {
         if (filename == null || filename.isBlank()) {
             throw new IllegalArgumentException("Filename cannot be null or blank");
         }
@@ -83,11 +750,129 @@ public class FileHandler {
         if (filename.contains("..")) {
             throw new IllegalArgumentException("Invalid filename: directory traversal is not allowed");
         }
+    }
+
+    /**
+     * Skips the first skip lines of a reader, then returns the next count lines,
+     * each terminated by "\n".
+     */
+    private static class LineRangeReader extends Reader {
+        private final BufferedReader in;
+        private long skip;
+        private long remaining;
+        private String line = "";
+        private int pos;
+
+        LineRangeReader(BufferedReader in, long skip, long count) {
+            this.in = in;
+            this.skip = skip;
+            this.remaining = count;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos == line.length()) {
+                if (remaining == 0 || !nextLine()) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, line.length() - pos);
+            line.getChars(pos, pos + n, cbuf, off);
+            pos += n;
+            return n;
+        }
+
+        private boolean nextLine() throws IOException {
+            for (; skip > 0; skip--) {
+                if (in.readLine() == null) {
+                    remaining = 0;
+                    return false;
+                }
+            }
+            String next = in.readLine();
+            if (next == null) {
+                remaining = 0;
+                return false;
+            }
+            line = next + "\n";
+            pos = 0;
+            remaining--;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Converts "\r\n" and "\r" to "\n" and appends a final "\n" if the input
+     * does not end with one, matching what readLine() + append("\n") produces.
+     */
+    private static class LineNormalizingReader extends Reader {
+        private final Reader in;
+        private final boolean timed;
+        private boolean lastWasCR;
+        private boolean sawAny;
+        private boolean endsWithNewline;
+        private boolean done;
 
-        // Only allow .txt
-        if (!filename.endsWith(".txt")) {
-            throw new IllegalArgumentException("Invalid filename: must end with .txt");
+        /**
+         * @param timed Record each read as READ_FILE time (off when the caller records the whole read).
+         */
+        LineNormalizingReader(Reader in, boolean timed) {
+            this.in = in;
+            this.timed = timed;
         }
 
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (!done) {
+                long start = timed ? PipelineStats.start() : 0;
+                int n = in.read(cbuf, off, len);
+                if (timed) {
+                    PipelineStats.READ_FILE.record(start, Math.max(n, 0));
+                }
+                if (n == -1) {
+                    done = true;
+                    if (sawAny && !endsWithNewline) {
+                        cbuf[off] = '\n';
+                        return 1;
+                    }
+                    return -1;
+                }
+
+                int w = off;
+                for (int i = off; i < off + n; i++) {
+                    char c = cbuf[i];
+                    if (c == '\n' && lastWasCR) {
+                        lastWasCR = false;
+                        continue;
+                    }
+                    lastWasCR = c == '\r';
+                    cbuf[w++] = lastWasCR ? '\n' : c;
+                }
+
+                int count = w - off;
+                if (count > 0) {
+                    sawAny = true;
+                    endsWithNewline = cbuf[w - 1] == '\n';
+                    return count;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,554 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Infers a likely key for a ciphered text whose key file is lost.
+ *
+ * The key is assumed to permute ALPHABET, like the shipped key files; every other
+ * character passes through unchanged, so word boundaries show in the ciphertext.
+ * A candidate key is scored with a Model trained from reference English: trigram
+ * log-probabilities over case-folded letters, plus how likely an upper case letter
+ * or a digit is at the start or in the middle of a word. The ciphertext is reduced
+ * once to counts of its distinct trigrams, so scoring costs time proportional to
+ * those rather than to the text length.
+ *
+ * The search is randomized hill climbing: each restart begins with the assignment
+ * that matches cipher and reference characters by frequency rank, shuffled by a few
+ * random swaps, and then swaps pairs of assignments for as long as the score improves.
+ * Restarts run in parallel on all cores. The confidence of the result is the share of
+ * restarts that ended on the best assignment. Digits are all alike to the model, so
+ * which cipher digit is which is a guess.
+ */
+public class KeyRecovery {
+
+    /** The characters a key permutes (the alphabet of ciphers/key.txt). */
+    public static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ1234567890";
+
+    // Folded symbols used by the trigram model: letters 0-25 (either case), any digit, a word boundary
+    static final int DIGIT = 26;
+    static final int BOUNDARY = 27;
+    static final int SYMBOLS = 28;
+
+    // Character classes and word positions used by the class model
+    private static final int LOWER = 0;
+    private static final int UPPER = 1;
+    private static final int DIGITS = 2;
+    private static final int START = 0;
+    private static final int MIDDLE = 1;
+
+    private static final int N = ALPHABET.length();
+
+    // Kicks without improvement after which a restart gives up
+    private static final int KICKS = 50;
+
+    // Cipher symbol for a run of characters outside ALPHABET
+    private static final int CIPHER_BOUNDARY = N;
+
+    private static final int[] FOLD = new int[N];
+    private static final int[] CLASS = new int[N];
+
+    static {
+        for (int i = 0; i < N; i++) {
+            char c = ALPHABET.charAt(i);
+            if (Character.isDigit(c)) {
+                FOLD[i] = DIGIT;
+                CLASS[i] = DIGITS;
+            } else {
+                FOLD[i] = Character.toLowerCase(c) - 'a';
+                CLASS[i] = Character.isUpperCase(c) ? UPPER : LOWER;
+            }
+        }
+    }
+
+    private final Model model;
+    private final int restarts;
+    private final long seed;
+
+    /**
+     * @param model    Statistics of the language the plain text is expected to be in.
+     * @param restarts Number of independent hill climbs.
+     * @param seed     Seed of the random perturbations; the same seed gives the same result.
+     */
+    public KeyRecovery(Model model, int restarts, long seed) {
+        if (restarts < 1) {
+            throw new IllegalArgumentException("At least one restart is needed");
+        }
+        this.model = model;
+        this.restarts = restarts;
+        this.seed = seed;
+    }
+
+    /**
+     * Recovery with the given model and four restarts per core.
+     */
+    public KeyRecovery(Model model) {
+        this(model, 4 * Runtime.getRuntime().availableProcessors(), 1);
+    }
+
+    /**
+     * Recovery with the built-in English model and four restarts per core.
+     */
+    public KeyRecovery() {
+        this(Model.english());
+    }
+
+    /**
+     * N-gram and character class statistics on primitive arrays, trained from a reference text.
+     */
+    public static final class Model {
+        // log P(z | x y) at (x * SYMBOLS + y) * SYMBOLS + z
+        final float[] trigrams = new float[SYMBOLS * SYMBOLS * SYMBOLS];
+
+        // log P(class | word position) at position * 3 + class
+        final float[] classes = new float[6];
+
+        // Reference characters of ALPHABET, most frequent first
+        final int[] byFrequency;
+
+        private static volatile Model english;
+
+        private Model(int[] trigramCounts, int[] classCounts, int[] charCounts) {
+            for (int context = 0; context < SYMBOLS * SYMBOLS; context++) {
+                long total = 0;
+                for (int z = 0; z < SYMBOLS; z++) {
+                    total += trigramCounts[context * SYMBOLS + z];
+                }
+                for (int z = 0; z < SYMBOLS; z++) {
+                    // Add-one smoothing keeps unseen trigrams unlikely but possible
+                    trigrams[context * SYMBOLS + z] =
+                            (float) Math.log((trigramCounts[context * SYMBOLS + z] + 1.0) / (total + SYMBOLS));
+                }
+            }
+            for (int position = START; position <= MIDDLE; position++) {
+                long total = 0;
+                for (int c = 0; c < 3; c++) {
+                    total += classCounts[position * 3 + c];
+                }
+                for (int c = 0; c < 3; c++) {
+                    classes[position * 3 + c] = (float) Math.log((classCounts[position * 3 + c] + 1.0) / (total + 3));
+                }
+            }
+            byFrequency = rankByCount(charCounts);
+        }
+
+        /**
+         * Builds a model from a reference text in the expected language.
+         */
+        public static Model train(CharSequence reference) {
+            int[] trigramCounts = new int[SYMBOLS * SYMBOLS * SYMBOLS];
+            int[] classCounts = new int[6];
+            int[] charCounts = new int[N];
+
+            int x = BOUNDARY;
+            int y = BOUNDARY;
+            boolean inWord = false;
+            for (int i = 0; i < reference.length(); i++) {
+                int index = ALPHABET.indexOf(reference.charAt(i));
+                int z;
+                if (index < 0) {
+                    if (y == BOUNDARY) {
+                        continue;
+                    }
+                    z = BOUNDARY;
+                    inWord = false;
+                } else {
+                    z = FOLD[index];
+                    classCounts[(inWord ? MIDDLE : START) * 3 + CLASS[index]]++;
+                    charCounts[index]++;
+                    inWord = true;
+                }
+                trigramCounts[(x * SYMBOLS + y) * SYMBOLS + z]++;
+                x = y;
+                y = z;
+            }
+            return new Model(trigramCounts, classCounts, charCounts);
+        }
+
+        /**
+         * The model trained from the built-in English reference text.
+         */
+        public static Model english() {
+            Model m = english;
+            if (m == null) {
+                m = train(ReferenceText.ENGLISH);
+                english = m;
+            }
+            return m;
+        }
+    }
+
+    /**
+     * A recovered key and how sure the search is about it.
+     */
+    public static final class Result {
+        private final String actualLine;
+        private final String cipherLine;
+        private final int agreeing;
+        private final int restarts;
+        private final double scorePerTrigram;
+
+        Result(String actualLine, String cipherLine, int agreeing, int restarts, double scorePerTrigram) {
+            this.actualLine = actualLine;
+            this.cipherLine = cipherLine;
+            this.agreeing = agreeing;
+            this.restarts = restarts;
+            this.scorePerTrigram = scorePerTrigram;
+        }
+
+        /** Line 1 of the key file: the plain alphabet. */
+        public String getActualLine() {
+            return actualLine;
+        }
+
+        /** Line 2 of the key file: the cipher character of each plain character. */
+        public String getCipherLine() {
+            return cipherLine;
+        }
+
+        /** Share of restarts (0 to 1) that found the same key for every character in the text. */
+        public double getConfidence() {
+            return (double) agreeing / restarts;
+        }
+
+        public int getAgreeingRestarts() {
+            return agreeing;
+        }
+
+        public int getRestarts() {
+            return restarts;
+        }
+
+        /** Average log-probability of the deciphered text's trigrams under the model. */
+        public double getScorePerTrigram() {
+            return scorePerTrigram;
+        }
+
+        public CipherKey toCipherKey() {
+            return new CipherKey(cipherLine.codePoints().toArray(), actualLine.codePoints().toArray());
+        }
+    }
+
+    /**
+     * Infers a key for ciphered text.
+     *
+     * @throws IllegalArgumentException if the text has no characters of ALPHABET.
+     */
+    public Result recover(CharSequence cipherText) {
+        Statistics stats = new Statistics(cipherText);
+        if (stats.used.length == 0) {
+            throw new IllegalArgumentException("The text has no characters a key could map");
+        }
+
+        List<int[]> solutions = IntStream.range(0, restarts).parallel()
+                .mapToObj(r -> new Climber(stats, new Random(seed + r)).climb(r == 0))
+                .collect(Collectors.toList());
+
+        int[] best = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int[] plainOf : solutions) {
+            double score = stats.score(plainOf);
+            if (score > bestScore) {
+                bestScore = score;
+                best = plainOf;
+            }
+        }
+
+        int agreeing = 0;
+        for (int[] plainOf : solutions) {
+            if (stats.sameOnUsed(plainOf, best)) {
+                agreeing++;
+            }
+        }
+
+        char[] cipherLine = new char[N];
+        for (int c = 0; c < N; c++) {
+            cipherLine[best[c]] = ALPHABET.charAt(c);
+        }
+        return new Result(ALPHABET, new String(cipherLine), agreeing, restarts, bestScore / stats.trigramTotal);
+    }
+
+    /**
+     * The ciphertext reduced to what the score needs.
+     */
+    private final class Statistics {
+        // Distinct cipher trigrams (symbols 0..N, N being a boundary) and how often each occurs
+        final int[] first;
+        final int[] second;
+        final int[] third;
+        final int[] count;
+        final long trigramTotal;
+
+        // How often each cipher character starts a word or occurs inside one
+        final int[] starts = new int[N];
+        final int[] middles = new int[N];
+
+        // For each cipher character, the trigrams it occurs in
+        final int[][] touching = new int[N][];
+
+        // Cipher characters that occur in the text, most frequent first
+        final int[] used;
+
+        Statistics(CharSequence text) {
+            int m = N + 1;
+            int[] counts = new int[m * m * m];
+            int x = CIPHER_BOUNDARY;
+            int y = CIPHER_BOUNDARY;
+            boolean inWord = false;
+            long total = 0;
+            for (int i = 0; i < text.length(); i++) {
+                int z = ALPHABET.indexOf(text.charAt(i));
+                if (z < 0) {
+                    if (y == CIPHER_BOUNDARY) {
+                        continue;
+                    }
+                    z = CIPHER_BOUNDARY;
+                    inWord = false;
+                } else {
+                    if (inWord) {
+                        middles[z]++;
+                    } else {
+                        starts[z]++;
+                    }
+                    inWord = true;
+                }
+                counts[(x * m + y) * m + z]++;
+                total++;
+                x = y;
+                y = z;
+            }
+            trigramTotal = Math.max(total, 1);
+
+            int distinct = 0;
+            for (int c : counts) {
+                if (c > 0) {
+                    distinct++;
+                }
+            }
+            first = new int[distinct];
+            second = new int[distinct];
+            third = new int[distinct];
+            count = new int[distinct];
+            int[] touchCounts = new int[N];
+            int t = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    first[t] = i / (m * m);
+                    second[t] = (i / m) % m;
+                    third[t] = i % m;
+                    count[t] = counts[i];
+                    for (int s : new int[] {first[t], second[t], third[t]}) {
+                        if (s < N) {
+                            touchCounts[s]++;
+                        }
+                    }
+                    t++;
+                }
+            }
+            for (int s = 0; s < N; s++) {
+                touching[s] = new int[touchCounts[s]];
+                touchCounts[s] = 0;
+            }
+            for (t = 0; t < distinct; t++) {
+                // A trigram such as "aab" is listed once per distinct character
+                if (first[t] < N) {
+                    touching[first[t]][touchCounts[first[t]]++] = t;
+                }
+                if (second[t] < N && second[t] != first[t]) {
+                    touching[second[t]][touchCounts[second[t]]++] = t;
+                }
+                if (third[t] < N && third[t] != first[t] && third[t] != second[t]) {
+                    touching[third[t]][touchCounts[third[t]]++] = t;
+                }
+            }
+            for (int s = 0; s < N; s++) {
+                touching[s] = Arrays.copyOf(touching[s], touchCounts[s]);
+            }
+
+            int[] occurrences = new int[N];
+            for (int s = 0; s < N; s++) {
+                occurrences[s] = starts[s] + middles[s];
+            }
+            int[] ranked = rankByCount(occurrences);
+            int n = 0;
+            while (n < N && occurrences[ranked[n]] > 0) {
+                n++;
+            }
+            used = Arrays.copyOf(ranked, n);
+        }
+
+        double score(int[] plainOf) {
+            double score = 0;
+            for (int t = 0; t < count.length; t++) {
+                score += trigramScore(plainOf, t);
+            }
+            for (int s : used) {
+                score += classScore(plainOf, s);
+            }
+            return score;
+        }
+
+        double trigramScore(int[] plainOf, int t) {
+            int x = symbol(plainOf, first[t]);
+            int y = symbol(plainOf, second[t]);
+            int z = symbol(plainOf, third[t]);
+            return count[t] * model.trigrams[(x * SYMBOLS + y) * SYMBOLS + z];
+        }
+
+        double classScore(int[] plainOf, int s) {
+            int c = CLASS[plainOf[s]];
+            return starts[s] * model.classes[START * 3 + c] + middles[s] * model.classes[MIDDLE * 3 + c];
+        }
+
+        /**
+         * True if a and b agree on every character in the text, as far as the model can
+         * tell characters apart (it has no way to tell one digit from another).
+         */
+        boolean sameOnUsed(int[] a, int[] b) {
+            for (int s : used) {
+                if (FOLD[a[s]] != FOLD[b[s]] || CLASS[a[s]] != CLASS[b[s]]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int symbol(int[] plainOf, int cipherSymbol) {
+            return cipherSymbol == CIPHER_BOUNDARY ? BOUNDARY : FOLD[plainOf[cipherSymbol]];
+        }
+    }
+
+    /**
+     * One hill climb. plainOf[c] is the ALPHABET index that cipher character c deciphers to.
+     */
+    private final class Climber {
+        private final Statistics stats;
+        private final Random random;
+        private final int[] plainOf = new int[N];
+
+        // Marks trigrams already counted while scoring a swap
+        private final int[] seen;
+        private int stamp;
+
+        Climber(Statistics stats, Random random) {
+            this.stats = stats;
+            this.random = random;
+            this.seen = new int[stats.count.length];
+        }
+
+        int[] climb(boolean unperturbed) {
+            // Match cipher and reference characters by frequency rank
+            boolean[] assigned = new boolean[N];
+            int rank = 0;
+            for (int s : stats.used) {
+                plainOf[s] = model.byFrequency[rank++];
+                assigned[s] = true;
+            }
+            for (int s = 0; s < N; s++) {
+                if (!assigned[s]) {
+                    plainOf[s] = model.byFrequency[rank++];
+                }
+            }
+
+            if (!unperturbed) {
+                perturb(5 + random.nextInt(25));
+            }
+            ascend();
+
+            // Iterated local search: kick the best assignment with a few random swaps and
+            // climb again, until KICKS kicks in a row bring no improvement
+            int[] best = plainOf.clone();
+            double bestScore = stats.score(best);
+            for (int stale = 0; stale < KICKS; ) {
+                perturb(2 + random.nextInt(4));
+                ascend();
+                double score = stats.score(plainOf);
+                if (score > bestScore + 1e-9) {
+                    System.arraycopy(plainOf, 0, best, 0, N);
+                    bestScore = score;
+                    stale = 0;
+                } else {
+                    System.arraycopy(best, 0, plainOf, 0, N);
+                    stale++;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Swaps pairs of assignments for as long as any swap improves the score.
+         */
+        private void ascend() {
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                for (int i = 0; i < stats.used.length; i++) {
+                    int a = stats.used[i];
+                    for (int b = 0; b < N; b++) {
+                        if (b != a && gain(a, b) > 1e-9) {
+                            swap(a, b);
+                            improved = true;
+                        }
+                    }
+                }
+            }
+        }
+
+        private void perturb(int swaps) {
+            for (int i = 0; i < swaps; i++) {
+                swap(stats.used[random.nextInt(stats.used.length)], random.nextInt(N));
+            }
+        }
+
+        /**
+         * Score change if cipher characters a and b exchanged what they decipher to.
+         */
+        private double gain(int a, int b) {
+            double before = local(a, b);
+            swap(a, b);
+            double after = local(a, b);
+            swap(a, b);
+            return after - before;
+        }
+
+        private double local(int a, int b) {
+            stamp++;
+            double score = stats.classScore(plainOf, a) + stats.classScore(plainOf, b);
+            for (int t : stats.touching[a]) {
+                seen[t] = stamp;
+                score += stats.trigramScore(plainOf, t);
+            }
+            for (int t : stats.touching[b]) {
+                if (seen[t] != stamp) {
+                    score += stats.trigramScore(plainOf, t);
+                }
+            }
+            return score;
+        }
+
+        private void swap(int a, int b) {
+            int p = plainOf[a];
+            plainOf[a] = plainOf[b];
+            plainOf[b] = p;
+        }
+    }
+
+    /**
+     * Indices 0..counts.length-1, highest count first (ties keep index order).
+     */
+    private static int[] rankByCount(int[] counts) {
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            order.add(i);
+        }
+        order.sort((i, j) -> Integer.compare(counts[j], counts[i]));
+        int[] ranked = new int[counts.length];
+        for (int i = 0; i < ranked.length; i++) {
+            ranked[i] = order.get(i);
+        }
+        return ranked;
+    }
+}
@@ -0,0 +1,113 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Named cipher keys that can be replaced while they are in use.
+ *
+ * The registry holds an immutable snapshot of name -> key version. Publishing a
+ * key copies the snapshot, adds the new version and swaps the snapshot in with a
+ * compare-and-set, so readers never lock: get is a single volatile read. A decode
+ * that already looked up a key keeps using that version until it finishes, while
+ * every lookup after the swap sees the new one. CipherKey is immutable, so old
+ * versions stay valid for as long as someone holds them.
+ *
+ * Safe for concurrent use by any number of readers and writers.
+ */
+public class KeyRegistry {
+
+    /** Marks a key argument as a published name rather than a key file path, e.g. "registry:live". */
+    public static final String PREFIX = "registry:";
+
+    private final AtomicReference<Map<String, Version>> snapshot = new AtomicReference<>(Map.of());
+
+    /**
+     * One published key.
+     */
+    public static final class Version {
+        private final String name;
+        private final CipherKey key;
+        private final long number;
+
+        Version(String name, CipherKey key, long number) {
+            this.name = name;
+            this.key = key;
+            this.number = number;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public CipherKey getKey() {
+            return key;
+        }
+
+        /** 1 for the first key published under this name, then counting up. */
+        public long getNumber() {
+            return number;
+        }
+    }
+
+    /**
+     * Returns the current key published under name, or null if there is none.
+     */
+    public CipherKey get(String name) {
+        Version version = snapshot.get().get(name);
+        return version == null ? null : version.key;
+    }
+
+    /**
+     * Returns the current version published under name, or null if there is none.
+     */
+    public Version current(String name) {
+        return snapshot.get().get(name);
+    }
+
+    /**
+     * Publishes key under name, replacing the previous version if any.
+     * Returns the new version.
+     */
+    public Version publish(String name, CipherKey key) {
+        if (name == null || key == null) {
+            throw new IllegalArgumentException("Key name and key cannot be null");
+        }
+        while (true) {
+            Map<String, Version> current = snapshot.get();
+            Version previous = current.get(name);
+            Version version = new Version(name, key, previous == null ? 1 : previous.number + 1);
+
+            Map<String, Version> next = new HashMap<>(current);
+            next.put(name, version);
+            if (snapshot.compareAndSet(current, Collections.unmodifiableMap(next))) {
+                return version;
+            }
+        }
+    }
+
+    /**
+     * Removes the key published under name. Returns false if there was none.
+     */
+    public boolean remove(String name) {
+        while (true) {
+            Map<String, Version> current = snapshot.get();
+            if (!current.containsKey(name)) {
+                return false;
+            }
+            Map<String, Version> next = new HashMap<>(current);
+            next.remove(name);
+            if (snapshot.compareAndSet(current, Collections.unmodifiableMap(next))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Names of all published keys at this moment.
+     */
+    public Set<String> names() {
+        return snapshot.get().keySet();
+    }
+}
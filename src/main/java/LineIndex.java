@@ -0,0 +1,175 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Byte offsets of line starts in a data file, so a range of lines can be read
+ * without scanning everything before it.
+ *
+ * Only every STRIDE-th line start is stored (lines 1, 1 + STRIDE, 1 + 2 * STRIDE, ...),
+ * which keeps the index small; reading a range skips at most STRIDE - 1 lines
+ * from the nearest checkpoint. Lines end at "\n", "\r\n" or "\r", the same as
+ * BufferedReader.readLine. Offsets assume an ASCII-compatible charset.
+ *
+ * The index remembers the last-modified time and size of the file it was built
+ * from, and is saved to / loaded from a sidecar file next to the data file.
+ */
+public class LineIndex {
+
+    /** Number of lines between two stored line starts. */
+    static final int STRIDE = 64;
+
+    private static final int MAGIC = 0x54534c49; // "TSLI"
+    private static final int VERSION = 1;
+    private static final int SCAN_BUFFER_SIZE = 1 << 16;
+
+    private final long modified;
+    private final long size;
+    private final long lineCount;
+    private final long[] checkpoints;
+
+    LineIndex(long modified, long size, long lineCount, long[] checkpoints) {
+        this.modified = modified;
+        this.size = size;
+        this.lineCount = lineCount;
+        this.checkpoints = checkpoints;
+    }
+
+    /**
+     * Scans a file once and records the start of every STRIDE-th line.
+     */
+    public static LineIndex build(Path file) throws IOException {
+        long modified = Files.getLastModifiedTime(file).toMillis();
+
+        long[] starts = new long[16];
+        int count = 0;
+        long lines = 0;
+        long size;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = channel.size();
+            ByteBuffer buf = ByteBuffer.allocateDirect(SCAN_BUFFER_SIZE);
+            long pos = 0;
+            long lineStart = 0;
+            boolean lastWasCR = false;
+
+            while (channel.read(buf) != -1) {
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    byte b = buf.get();
+                    if (b == '\n' && lastWasCR) {
+                        // "\r\n": the line start recorded after '\r' moves past the '\n'
+                        lineStart = pos + 1;
+                        lastWasCR = false;
+                    } else if (b == '\n' || b == '\r') {
+                        if ((lines % STRIDE) == 0) {
+                            if (count == starts.length) {
+                                starts = Arrays.copyOf(starts, count * 2);
+                            }
+                            starts[count++] = lineStart;
+                        }
+                        lines++;
+                        lineStart = pos + 1;
+                        lastWasCR = b == '\r';
+                    } else {
+                        lastWasCR = false;
+                    }
+                    pos++;
+                }
+                buf.clear();
+            }
+
+            // A last line without a terminator still counts
+            if (lineStart < pos) {
+                if ((lines % STRIDE) == 0) {
+                    if (count == starts.length) {
+                        starts = Arrays.copyOf(starts, count + 1);
+                    }
+                    starts[count++] = lineStart;
+                }
+                lines++;
+            }
+        }
+
+        return new LineIndex(modified, size, lines, Arrays.copyOf(starts, count));
+    }
+
+    /**
+     * Loads a saved index. Returns null if the sidecar is missing or unreadable.
+     */
+    public static LineIndex read(Path sidecar) {
+        if (!Files.isRegularFile(sidecar)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != STRIDE) {
+                return null;
+            }
+            long modified = in.readLong();
+            long size = in.readLong();
+            long lineCount = in.readLong();
+            long[] checkpoints = new long[in.readInt()];
+            for (int i = 0; i < checkpoints.length; i++) {
+                checkpoints[i] = in.readLong();
+            }
+            return new LineIndex(modified, size, lineCount, checkpoints);
+        } catch (IOException | NegativeArraySizeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Saves the index to a sidecar file. The file is written under a temporary
+     * name and then moved into place, so readers never see a partial index.
+     */
+    public void write(Path sidecar) throws IOException {
+        Path tmp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(STRIDE);
+            out.writeLong(modified);
+            out.writeLong(size);
+            out.writeLong(lineCount);
+            out.writeInt(checkpoints.length);
+            for (long offset : checkpoints) {
+                out.writeLong(offset);
+            }
+        }
+        Files.move(tmp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns true if the index was built from the file in its current state.
+     */
+    public boolean isCurrent(Path file) throws IOException {
+        return Files.getLastModifiedTime(file).toMillis() == modified && Files.size(file) == size;
+    }
+
+    public long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Returns the nearest stored line at or before line (1-based).
+     */
+    public long checkpointLine(long line) {
+        return (line - 1) / STRIDE * STRIDE + 1;
+    }
+
+    /**
+     * Returns the byte offset where checkpointLine(line) starts.
+     */
+    public long checkpointOffset(long line) {
+        return checkpoints[(int) ((line - 1) / STRIDE)];
+    }
+}
@@ -0,0 +1,244 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds a byte pattern in a data file with Boyer-Moore-Horspool and reports the
+ * lines it occurs in.
+ *
+ * Used to search ciphertext directly: with a substitution cipher, the enciphered
+ * query is exactly the byte sequence to look for, so nothing has to be deciphered
+ * except the matching lines. Lines end at "\n", "\r\n" or "\r" (as in readFile),
+ * so the pattern may not contain either character. Each line is reported once,
+ * at its first match.
+ */
+public class PatternSearch {
+
+    private final byte[] pattern;
+
+    // shift[b]: how far the window may move when its last byte is b
+    private final int[] shift = new int[256];
+
+    public PatternSearch(byte[] pattern) {
+        if (pattern == null || pattern.length == 0) {
+            throw new IllegalArgumentException("Search pattern cannot be empty");
+        }
+        for (byte b : pattern) {
+            if (b == '\n' || b == '\r') {
+                throw new IllegalArgumentException("Search pattern cannot contain line breaks");
+            }
+        }
+        this.pattern = pattern.clone();
+
+        int m = pattern.length;
+        Arrays.fill(shift, m);
+        for (int i = 0; i < m - 1; i++) {
+            shift[pattern[i] & 0xff] = m - 1 - i;
+        }
+    }
+
+    /**
+     * A line containing the pattern.
+     */
+    public static final class Hit {
+        private final long line;
+        private final long offset;
+        private final byte[] lineBytes;
+
+        Hit(long line, long offset, byte[] lineBytes) {
+            this.line = line;
+            this.offset = offset;
+            this.lineBytes = lineBytes;
+        }
+
+        /** Line number (1-based). */
+        public long getLine() {
+            return line;
+        }
+
+        /** Byte offset of the first match from the start of the file. */
+        public long getOffset() {
+            return offset;
+        }
+
+        /** The raw bytes of the line, without its line break. */
+        public byte[] getLineBytes() {
+            return lineBytes;
+        }
+    }
+
+    /**
+     * Searches memory-mapped segments (as returned by FileHandler.mapFile). Every
+     * segment but the last must hold exactly segmentSize bytes, a power of two.
+     */
+    public List<Hit> search(List<? extends ByteBuffer> segments, int segmentSize) {
+        if (Integer.bitCount(segmentSize) != 1) {
+            throw new IllegalArgumentException("Segment size must be a power of two");
+        }
+        Segments data = new Segments(segments, segmentSize);
+        List<Hit> hits = new ArrayList<>();
+
+        int m = pattern.length;
+        byte last = pattern[m - 1];
+        long n = data.size;
+
+        // Line position of everything before counted
+        long counted = 0;
+        long line = 1;
+        long lineStart = 0;
+        boolean lastWasCR = false;
+
+        long pos = 0;
+        while (pos <= n - m) {
+            byte b = data.get(pos + m - 1);
+            if (b == last && matchesAt(data, pos)) {
+                for (; counted < pos; counted++) {
+                    byte c = data.get(counted);
+                    if (c == '\n' && lastWasCR) {
+                        lineStart = counted + 1;
+                        lastWasCR = false;
+                    } else if (c == '\n' || c == '\r') {
+                        line++;
+                        lineStart = counted + 1;
+                        lastWasCR = c == '\r';
+                    } else {
+                        lastWasCR = false;
+                    }
+                }
+
+                long lineEnd = pos + m;
+                while (lineEnd < n) {
+                    byte c = data.get(lineEnd);
+                    if (c == '\n' || c == '\r') {
+                        break;
+                    }
+                    lineEnd++;
+                }
+                hits.add(new Hit(line, pos, data.copy(lineStart, lineEnd)));
+
+                // Only the first match per line is reported
+                pos = lineEnd;
+                continue;
+            }
+            pos += shift[b & 0xff];
+        }
+        return hits;
+    }
+
+    /**
+     * Searches a stream (e.g. a decompressed data file) line by line.
+     * The stream is read to the end but not closed.
+     */
+    public List<Hit> search(InputStream in) throws IOException {
+        List<Hit> hits = new ArrayList<>();
+        byte[] buf = new byte[Cipher.CHUNK_SIZE];
+        byte[] lineBuf = new byte[256];
+        int lineLength = 0;
+        long line = 1;
+        long lineStart = 0;
+        long offset = 0;
+        boolean lastWasCR = false;
+
+        int n;
+        while ((n = in.read(buf, 0, buf.length)) != -1) {
+            for (int i = 0; i < n; i++, offset++) {
+                byte b = buf[i];
+                if (b == '\n' && lastWasCR) {
+                    lastWasCR = false;
+                    lineStart = offset + 1;
+                    continue;
+                }
+                if (b == '\n' || b == '\r') {
+                    addHit(hits, line, lineStart, lineBuf, lineLength);
+                    line++;
+                    lineLength = 0;
+                    lineStart = offset + 1;
+                    lastWasCR = b == '\r';
+                    continue;
+                }
+                lastWasCR = false;
+                if (lineLength == lineBuf.length) {
+                    lineBuf = Arrays.copyOf(lineBuf, lineLength * 2);
+                }
+                lineBuf[lineLength++] = b;
+            }
+        }
+        addHit(hits, line, lineStart, lineBuf, lineLength);
+        return hits;
+    }
+
+    private void addHit(List<Hit> hits, long line, long lineStart, byte[] lineBuf, int lineLength) {
+        int at = indexOf(lineBuf, lineLength);
+        if (at >= 0) {
+            hits.add(new Hit(line, lineStart + at, Arrays.copyOf(lineBuf, lineLength)));
+        }
+    }
+
+    /**
+     * Returns the index of the first match in a[0, length), or -1.
+     */
+    int indexOf(byte[] a, int length) {
+        int m = pattern.length;
+        byte last = pattern[m - 1];
+        int pos = 0;
+        while (pos <= length - m) {
+            byte b = a[pos + m - 1];
+            if (b == last) {
+                int j = m - 2;
+                while (j >= 0 && a[pos + j] == pattern[j]) {
+                    j--;
+                }
+                if (j < 0) {
+                    return pos;
+                }
+            }
+            pos += shift[b & 0xff];
+        }
+        return -1;
+    }
+
+    private boolean matchesAt(Segments data, long pos) {
+        for (int j = pattern.length - 2; j >= 0; j--) {
+            if (data.get(pos + j) != pattern[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Consecutive mapped segments addressed by a single long offset.
+     */
+    private static final class Segments {
+        private final ByteBuffer[] buffers;
+        private final int segmentShift;
+        private final long segmentMask;
+        final long size;
+
+        Segments(List<? extends ByteBuffer> segments, int segmentSize) {
+            buffers = segments.toArray(new ByteBuffer[0]);
+            segmentShift = Integer.numberOfTrailingZeros(segmentSize);
+            segmentMask = segmentSize - 1;
+            long total = 0;
+            for (ByteBuffer buffer : buffers) {
+                total += buffer.limit();
+            }
+            size = total;
+        }
+
+        byte get(long i) {
+            return buffers[(int) (i >>> segmentShift)].get((int) (i & segmentMask));
+        }
+
+        byte[] copy(long from, long to) {
+            byte[] bytes = new byte[Math.toIntExact(to - from)];
+            for (int k = 0; k < bytes.length; k++) {
+                bytes[k] = get(from + k);
+            }
+            return bytes;
+        }
+    }
+}
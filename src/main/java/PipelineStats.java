@@ -0,0 +1,447 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Timing and throughput counters for each stage of the pipeline:
+ * loading keys, listing files, reading files, deciphering and writing output.
+ *
+ * Recording is off by default. While off, start() returns 0 and record() returns
+ * immediately, so the only cost on the hot path is one volatile read.
+ *
+ * Usage:
+ *  long start = PipelineStats.start();
+ *  ... do the work ...
+ *  PipelineStats.READ_FILE.record(start, bytes);
+ *
+ * Latencies are kept in a histogram with one bucket per power of two nanoseconds.
+ *
+ * Besides the global switch, a caller can count one request on its own:
+ *  try (PipelineStats.Request request = PipelineStats.beginRequest()) {
+ *      ... do the work ...
+ *      request.printSummary(err);
+ *  }
+ * Work done on the calling thread is recorded in the request, whether or not the
+ * global switch is on; the global counters are left alone unless it is. Work handed to
+ * other threads is only attributed to the request if the task was wrapped with
+ * inCurrentRequest, so pool threads never hold on to a request that has ended.
+ */
+public final class PipelineStats implements PipelineStatsMXBean {
+
+    static final String MBEAN_NAME = "TopSecret:type=PipelineStats";
+
+    public static final Stage LOAD_KEY = new Stage("loadKey", 0);
+    public static final Stage LIST_FILES = new Stage("listFiles", 1);
+    public static final Stage READ_FILE = new Stage("readFile", 2);
+    public static final Stage DECIPHER = new Stage("decipher", 3);
+    public static final Stage ENCIPHER = new Stage("encipher", 4);
+    public static final Stage OUTPUT = new Stage("output", 5);
+
+    private static final List<Stage> STAGES = List.of(LOAD_KEY, LIST_FILES, READ_FILE, DECIPHER, ENCIPHER, OUTPUT);
+    private static final PipelineStats INSTANCE = new PipelineStats();
+
+    private static volatile boolean enabled = Boolean.getBoolean("topsecret.stats");
+
+    private static final ThreadLocal<Request> CURRENT = new ThreadLocal<>();
+    private static final AtomicInteger ACTIVE_REQUESTS = new AtomicInteger();
+
+    private PipelineStats() {
+    }
+
+    public static PipelineStats get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the current time in nanoseconds, or 0 if recording is off.
+     */
+    public static long start() {
+        return isRecording() ? System.nanoTime() : 0;
+    }
+
+    /**
+     * True if calls on this thread are being recorded, globally or for a request.
+     */
+    public static boolean isRecording() {
+        if (enabled) {
+            return true;
+        }
+        Request request = ACTIVE_REQUESTS.get() > 0 ? CURRENT.get() : null;
+        return request != null && !request.closed;
+    }
+
+    /**
+     * Starts counting a request on the calling thread. Close it to stop.
+     */
+    public static Request beginRequest() {
+        Request request = new Request(CURRENT.get());
+        CURRENT.set(request);
+        ACTIVE_REQUESTS.incrementAndGet();
+        return request;
+    }
+
+    /**
+     * Wraps task so that, on whichever thread it runs, it is recorded in the request of
+     * the calling thread (if any) for as long as that request is open.
+     */
+    public static <T> Callable<T> inCurrentRequest(Callable<T> task) {
+        Request request = CURRENT.get();
+        if (request == null) {
+            return task;
+        }
+        return () -> {
+            Request outer = CURRENT.get();
+            CURRENT.set(request);
+            try {
+                return task.call();
+            } finally {
+                if (outer == null) {
+                    CURRENT.remove();
+                } else {
+                    CURRENT.set(outer);
+                }
+            }
+        };
+    }
+
+    /**
+     * Registers the MXBean with the platform MBean server (once).
+     */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register " + MBEAN_NAME, e);
+        }
+    }
+
+    /**
+     * Wraps out so every write is recorded in the OUTPUT stage.
+     */
+    public static OutputStream timed(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                long start = start();
+                out.write(b);
+                OUTPUT.record(start, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                long start = start();
+                out.write(b, off, len);
+                OUTPUT.record(start, len);
+            }
+        };
+    }
+
+    /**
+     * Wraps out so every write is recorded in the OUTPUT stage.
+     */
+    public static WritableByteChannel timed(WritableByteChannel out) {
+        return new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                long start = start();
+                int n = out.write(src);
+                OUTPUT.record(start, n);
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return out.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.close();
+            }
+        };
+    }
+
+    /**
+     * Prints one line per stage that has been called.
+     */
+    public static void printSummary(PrintStream ps) {
+        Snapshot[] snapshots = new Snapshot[STAGES.size()];
+        for (Stage stage : STAGES) {
+            snapshots[stage.index] = stage.snapshot();
+        }
+        printSummary(ps, snapshots);
+    }
+
+    private static void printSummary(PrintStream ps, Snapshot[] snapshots) {
+        ps.println("Pipeline stats:");
+        ps.printf("%-10s %8s %12s %10s %9s %9s %9s %9s%n",
+                "stage", "calls", "bytes", "total ms", "MB/s", "p50 us", "p99 us", "max us");
+        for (Snapshot s : snapshots) {
+            if (s.getCount() == 0) {
+                continue;
+            }
+            ps.printf("%-10s %8d %12d %10.2f %9.1f %9.1f %9.1f %9.1f%n",
+                    s.getName(), s.getCount(), s.getBytes(), s.getTotalNanos() / 1e6,
+                    s.getThroughputMBps(), s.getP50Micros(), s.getP99Micros(), s.getMaxMicros());
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        PipelineStats.enabled = enabled;
+    }
+
+    @Override
+    public Snapshot getLoadKey() {
+        return LOAD_KEY.snapshot();
+    }
+
+    @Override
+    public Snapshot getListFiles() {
+        return LIST_FILES.snapshot();
+    }
+
+    @Override
+    public Snapshot getReadFile() {
+        return READ_FILE.snapshot();
+    }
+
+    @Override
+    public Snapshot getDecipher() {
+        return DECIPHER.snapshot();
+    }
+
+    @Override
+    public Snapshot getEncipher() {
+        return ENCIPHER.snapshot();
+    }
+
+    @Override
+    public Snapshot getOutput() {
+        return OUTPUT.snapshot();
+    }
+
+    @Override
+    public void reset() {
+        for (Stage stage : STAGES) {
+            stage.reset();
+        }
+    }
+
+    /**
+     * One stage of the pipeline. Safe to record from many threads.
+     */
+    public static final class Stage {
+        private final String name;
+        private final int index;
+        private final Counters total = new Counters();
+
+        Stage(String name, int index) {
+            this.name = name;
+            this.index = index;
+        }
+
+        /**
+         * Records one call that started at start (from PipelineStats.start()) and processed bytes.
+         * Does nothing if start is 0, i.e. recording was off when the call began.
+         */
+        public void record(long start, long bytes) {
+            if (start == 0) {
+                return;
+            }
+            long nanos = Math.max(0, System.nanoTime() - start);
+            if (enabled) {
+                total.add(nanos, bytes);
+            }
+            Request request = ACTIVE_REQUESTS.get() > 0 ? CURRENT.get() : null;
+            if (request != null && !request.closed) {
+                request.counters[index].add(nanos, bytes);
+            }
+        }
+
+        Snapshot snapshot() {
+            return total.snapshot(name);
+        }
+
+        void reset() {
+            total.reset();
+        }
+    }
+
+    /**
+     * Counters for the calls made while one request was running. Not registered over JMX.
+     */
+    public static final class Request implements AutoCloseable {
+        private final Request previous;
+        private final Counters[] counters = new Counters[STAGES.size()];
+        // Read by tasks still running for the request on other threads
+        private volatile boolean closed;
+
+        private Request(Request previous) {
+            this.previous = previous;
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] = new Counters();
+            }
+        }
+
+        Snapshot snapshot(Stage stage) {
+            return counters[stage.index].snapshot(stage.name);
+        }
+
+        /**
+         * Prints one line per stage this request called.
+         */
+        public void printSummary(PrintStream ps) {
+            Snapshot[] snapshots = new Snapshot[STAGES.size()];
+            for (Stage stage : STAGES) {
+                snapshots[stage.index] = snapshot(stage);
+            }
+            PipelineStats.printSummary(ps, snapshots);
+        }
+
+        /**
+         * Stops counting on this thread and goes back to the enclosing request, if any.
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+            ACTIVE_REQUESTS.decrementAndGet();
+        }
+    }
+
+    private static final class Counters {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final AtomicLongArray histogram = new AtomicLongArray(64);
+
+        void add(long nanos, long bytes) {
+            count.increment();
+            this.bytes.add(bytes);
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            histogram.incrementAndGet(63 - Long.numberOfLeadingZeros(nanos | 1));
+        }
+
+        Snapshot snapshot(String name) {
+            long[] buckets = new long[histogram.length()];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = histogram.get(i);
+            }
+            return new Snapshot(name, count.sum(), bytes.sum(), totalNanos.sum(), maxNanos.get(), buckets);
+        }
+
+        void reset() {
+            count.reset();
+            bytes.reset();
+            totalNanos.reset();
+            maxNanos.reset();
+            for (int i = 0; i < histogram.length(); i++) {
+                histogram.set(i, 0);
+            }
+        }
+    }
+
+    /**
+     * Point-in-time copy of a stage's counters (exposed over JMX as CompositeData).
+     */
+    public static final class Snapshot {
+        private final String name;
+        private final long count;
+        private final long bytes;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long[] histogram;
+
+        Snapshot(String name, long count, long bytes, long totalNanos, long maxNanos, long[] histogram) {
+            this.name = name;
+            this.count = count;
+            this.bytes = bytes;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.histogram = histogram;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public double getThroughputMBps() {
+            return totalNanos == 0 ? 0 : (bytes / 1e6) / (totalNanos / 1e9);
+        }
+
+        public double getP50Micros() {
+            return percentile(0.50) / 1e3;
+        }
+
+        public double getP99Micros() {
+            return percentile(0.99) / 1e3;
+        }
+
+        public double getMaxMicros() {
+            return maxNanos / 1e3;
+        }
+
+        public long[] getHistogram() {
+            return histogram.clone();
+        }
+
+        /**
+         * Upper bound of the histogram bucket containing the given fraction of calls.
+         */
+        private long percentile(double fraction) {
+            long target = (long) Math.ceil(count * fraction);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= target && seen > 0) {
+                    return Math.min(maxNanos, (2L << i) - 1);
+                }
+            }
+            return maxNanos;
+        }
+    }
+}
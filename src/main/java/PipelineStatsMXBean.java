@@ -0,0 +1,23 @@
+/**
+ * JMX view of PipelineStats, registered as "TopSecret:type=PipelineStats".
+ */
+public interface PipelineStatsMXBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    PipelineStats.Snapshot getLoadKey();
+
+    PipelineStats.Snapshot getListFiles();
+
+    PipelineStats.Snapshot getReadFile();
+
+    PipelineStats.Snapshot getDecipher();
+
+    PipelineStats.Snapshot getEncipher();
+
+    PipelineStats.Snapshot getOutput();
+
+    void reset();
+}
@@ -1,14 +1,71 @@
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
+/**
+ * Connects the user interface to the FileHandler and Cipher.
+ *
+ * Safe for concurrent use: one instance can serve many threads. Wherever a key
+ * path is expected, a key published in the KeyRegistry may be given instead as
+ * "registry:<name>" (KeyRegistry.PREFIX), so a published name never hides a key
+ * file. It is looked up once per request, so a key rotated with publishKey
+ * applies to later requests while running ones finish with the key they started with.
+ */
 public class ProgramControl {
-    Cipher cipher;
-    FileHandler fileHandler;
-    String defaultKeyPath;
+
+    /** Number of characters read and then deciphered as one task by the async methods. */
+    static final int ASYNC_CHUNK_SIZE = 1 << 16;
+
+    /** Files deciphered ahead of the one being consumed by forEachFileContent. */
+    static final int BATCH_PREFETCH = Runtime.getRuntime().availableProcessors();
+
+    /** Threads of the default async executor: twice the cores, so blocked reads leave room for decoding. */
+    static final int ASYNC_THREADS = 2 * Runtime.getRuntime().availableProcessors();
+
+    // Default executor of the async methods: blocking reads must not occupy the common pool.
+    // Bounded, so a burst of requests queues instead of starting a thread per task; no
+    // task ever waits for another one, so a full pool cannot deadlock.
+    private static final Executor ASYNC_EXECUTOR = newAsyncExecutor();
+
+    private final Supplier<Cipher> cipherFactory;
+    private final Supplier<FileHandler> fileHandlerFactory;
+    private final KeyRegistry keyRegistry = new KeyRegistry();
+    private volatile Cipher cipher;
+    private volatile FileHandler fileHandler;
+    private volatile ResultCache resultCache;
+    final String defaultKeyPath;
 
     public ProgramControl(Cipher cipher, FileHandler fileHandler, String defaultKeyPath) {
         this.fileHandler = fileHandler;
         this.cipher = cipher;
+        this.cipherFactory = () -> cipher;
+        this.fileHandlerFactory = () -> fileHandler;
         this.defaultKeyPath = defaultKeyPath;
     }
 
@@ -16,25 +73,766 @@ public class ProgramControl {
         this(cipher, fileHandler, "ciphers/default.key");
     }
 
+    /**
+     * Lazy variant: the Cipher and FileHandler are only created the first time a
+     * request needs them, so e.g. a usage error never touches the data folder.
+     */
+    public ProgramControl(Supplier<Cipher> cipherFactory, Supplier<FileHandler> fileHandlerFactory) {
+        this.cipherFactory = cipherFactory;
+        this.fileHandlerFactory = fileHandlerFactory;
+        this.defaultKeyPath = "ciphers/default.key";
+    }
+
+    private Cipher cipher() {
+        Cipher c = cipher;
+        if (c == null) {
+            synchronized (this) {
+                c = cipher;
+                if (c == null) {
+                    c = cipherFactory.get();
+                    cipher = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    private FileHandler fileHandler() {
+        FileHandler f = fileHandler;
+        if (f == null) {
+            synchronized (this) {
+                f = fileHandler;
+                if (f == null) {
+                    f = fileHandlerFactory.get();
+                    fileHandler = f;
+                }
+            }
+        }
+        return f;
+    }
+
+    /**
+     * Keys published by name (see publishKey).
+     */
+    public KeyRegistry getKeyRegistry() {
+        return keyRegistry;
+    }
+
+    /**
+     * Loads a key file and publishes it under name, replacing any previous key of that
+     * name for all requests that start afterwards. Requests refer to it as "registry:" + name.
+     */
+    public KeyRegistry.Version publishKey(String name, String keyPath) throws IOException {
+        return keyRegistry.publish(name, cipher().loadKey(keyPath));
+    }
+
+    /**
+     * The published key for "registry:<name>", else the key file at keyPath.
+     * Every request resolves its key here, once.
+     *
+     * @throws IOException if no key is published under the name.
+     */
+    private CipherKey loadKey(String keyPath) throws IOException {
+        if (keyPath != null && keyPath.startsWith(KeyRegistry.PREFIX)) {
+            String name = keyPath.substring(KeyRegistry.PREFIX.length());
+            CipherKey key = keyRegistry.get(name);
+            if (key == null) {
+                throw new IOException("No key published as " + name);
+            }
+            return key;
+        }
+        return cipher().loadKey(keyPath);
+    }
+
+    /**
+     * Caches the results of getFileContent and getFileContents (null, the default, turns caching off).
+     */
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Turns on pipeline timing and publishes it over JMX as "TopSecret:type=PipelineStats".
+     */
+    public void enableStats() {
+        PipelineStats.get().setEnabled(true);
+        PipelineStats.registerMBean();
+    }
+
     public List<String> getFileList() {
-        return fileHandler.listFiles();
+        return fileHandler().listFiles();
     }
 
     public String getFileContent(int fileIndex, String keyPath) throws IOException {
-        List<String> files = getFileList();
-        if (fileIndex < 1 || fileIndex > files.size()) {
-            throw new IllegalArgumentException("Invalid file index: " + fileIndex);
+        String filename = getFilename(fileIndex);
+        if (resultCache != null) {
+            return decipherFile(filename, loadKey(keyPath));
         }
-        String filename = files.get(fileIndex - 1);
         String cipherText;
         try {
-            cipherText = fileHandler.readFile(filename);
+            cipherText = fileHandler().readFile(filename);
         } catch (Exception e) {
             throw new RuntimeException("Error reading file: " + filename, e);
         }
 
-        return cipher.decipher(cipherText, keyPath);
+        return cipher().decipher(cipherText, loadKey(keyPath));
     }
-}
 
+    /**
+     * Asynchronous getFileContent on a shared pool of at most ASYNC_THREADS daemon threads.
+     * See getFileContentAsync(int, String, Executor).
+     */
+    public CompletableFuture<String> getFileContentAsync(int fileIndex, String keyPath) {
+        return getFileContentAsync(fileIndex, keyPath, ASYNC_EXECUTOR);
+    }
+
+    /**
+     * Deciphers a file without blocking the caller. The key is loaded while the file
+     * is being read, and each chunk is deciphered on the executor as soon as it has
+     * been read and the key is ready, so reading and decoding overlap.
+     * Produces the same text as getFileContent.
+     *
+     * Cancelling the returned future, or letting it time out (e.g. with orTimeout),
+     * stops reading at the next chunk and drops the remaining work.
+     *
+     * @param executor Runs the reading and decoding tasks; the caller keeps ownership.
+     */
+    public CompletableFuture<String> getFileContentAsync(int fileIndex, String keyPath, Executor executor) {
+        CompletableFuture<CipherKey> key = CompletableFuture.supplyAsync(() -> loadKeyUnchecked(keyPath), executor);
+        CompletableFuture<String> result = decipherAsync(fileIndex, key, executor);
+        result.whenComplete((text, e) -> key.cancel(false));
+        return result;
+    }
+
+    /**
+     * Deciphers several files concurrently with one shared key, without blocking the caller.
+     * Results are in the same order as fileIndices; if any file fails, the returned future
+     * fails and the other files are cancelled. Cancelling the returned future cancels all files.
+     */
+    public CompletableFuture<List<String>> getFileContentsAsync(List<Integer> fileIndices, String keyPath,
+                                                                Executor executor) {
+        CompletableFuture<CipherKey> key = CompletableFuture.supplyAsync(() -> loadKeyUnchecked(keyPath), executor);
+        List<CompletableFuture<String>> files = new ArrayList<>();
+        for (int fileIndex : fileIndices) {
+            files.add(decipherAsync(fileIndex, key, executor));
+        }
+
+        CompletableFuture<List<String>> result = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(files.size());
+        for (CompletableFuture<String> file : files) {
+            file.whenComplete((text, e) -> {
+                if (e != null) {
+                    result.completeExceptionally(unwrap(e));
+                } else if (remaining.decrementAndGet() == 0) {
+                    List<String> texts = new ArrayList<>();
+                    for (CompletableFuture<String> f : files) {
+                        texts.add(f.join());
+                    }
+                    result.complete(texts);
+                }
+            });
+        }
+        if (files.isEmpty()) {
+            result.complete(new ArrayList<>());
+        }
+        result.whenComplete((texts, e) -> {
+            key.cancel(false);
+            for (CompletableFuture<String> file : files) {
+                file.cancel(false);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Reads a file chunk by chunk on the executor and deciphers every chunk as its own task.
+     */
+    private CompletableFuture<String> decipherAsync(int fileIndex, CompletableFuture<CipherKey> key,
+                                                    Executor executor) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> readChunks(fileIndex, key, executor, result));
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private void readChunks(int fileIndex, CompletableFuture<CipherKey> key, Executor executor,
+                            CompletableFuture<String> result) {
+        List<CompletableFuture<String>> parts = new ArrayList<>();
+        try {
+            String filename = getFilename(fileIndex);
+            Reader in;
+            try {
+                in = fileHandler().openFile(filename);
+            } catch (Exception e) {
+                throw new RuntimeException("Error reading file: " + filename, e);
+            }
+
+            try (in) {
+                char[] buf = new char[ASYNC_CHUNK_SIZE];
+                int carry = 0;
+                int n;
+                while (!result.isDone() && !key.isCompletedExceptionally()
+                        && (n = in.read(buf, carry, buf.length - carry)) != -1) {
+                    int len = carry + n;
+                    // Keep a trailing high surrogate for the next chunk so pairs stay whole
+                    int ready = len > 0 && Character.isHighSurrogate(buf[len - 1]) ? len - 1 : len;
+                    parts.add(decipherChunk(key, buf, ready, executor));
+
+                    char[] next = new char[ASYNC_CHUNK_SIZE];
+                    carry = len - ready;
+                    if (carry > 0) {
+                        next[0] = buf[len - 1];
+                    }
+                    buf = next;
+                }
+                if (carry > 0) {
+                    parts.add(decipherChunk(key, buf, carry, executor));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            result.completeExceptionally(e);
+            return;
+        }
+
+        CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).whenComplete((v, e) -> {
+            if (e != null) {
+                result.completeExceptionally(unwrap(e));
+                return;
+            }
+            StringBuilder text = new StringBuilder();
+            for (CompletableFuture<String> part : parts) {
+                text.append(part.join());
+            }
+            result.complete(text.toString());
+        });
+    }
+
+    private CompletableFuture<String> decipherChunk(CompletableFuture<CipherKey> key, char[] chunk, int len,
+                                                    Executor executor) {
+        return key.thenApplyAsync(k -> cipher().decipher(chunk, 0, len, k), executor);
+    }
+
+    private CipherKey loadKeyUnchecked(String keyPath) {
+        try {
+            return loadKey(keyPath);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    private static ThreadPoolExecutor newAsyncExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(ASYNC_THREADS, ASYNC_THREADS,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new Daemons());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Makes daemon threads, so pending async work never keeps the JVM alive.
+     */
+    private static final class Daemons implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "topsecret-async-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Streams the deciphered contents of a file to out, chunk by chunk.
+     * Produces the same text as getFileContent without holding the whole file in memory.
+     */
+    public void writeFileContent(int fileIndex, String keyPath, Writer out) throws IOException {
+        String filename = getFilename(fileIndex);
+        Reader in;
+        try {
+            in = fileHandler().openFile(filename);
+        } catch (Exception e) {
+            throw new RuntimeException("Error reading file: " + filename, e);
+        }
+
+        try (in) {
+            cipher().decipher(in, out, loadKey(keyPath));
+        }
+    }
+
+    /**
+     * Streams the deciphered contents of a file to out in the platform charset.
+     * Large files deciphered with an ASCII key are memory-mapped and decoded byte by byte
+     * without building any Strings; everything else goes through the Writer path.
+     */
+    public void writeFileContent(int fileIndex, String keyPath, OutputStream out) throws IOException {
+        String filename = getFilename(fileIndex);
+        streamFile(filename, loadKey(keyPath), out);
+    }
+
+    /**
+     * Streams the deciphered contents of a file to a channel (e.g. stdout or a file).
+     * Large files deciphered with an ASCII key go from the memory-mapped file through
+     * one reused direct buffer into the channel; everything else goes through a Writer.
+     */
+    public void writeFileContent(int fileIndex, String keyPath, WritableByteChannel out) throws IOException {
+        String filename = getFilename(fileIndex);
+        CipherKey key = loadKey(keyPath);
+        if (canMap(filename, key)) {
+            cipher().decipher(fileHandler().mapFile(filename), out, key);
+            return;
+        }
+        streamText(filename, key, Channels.newOutputStream(out));
+    }
+
+    /**
+     * Opens a file that output can be written to and then atomically moved into place.
+     */
+    public FileHandler.AtomicOutput openOutputFile(String path) throws IOException {
+        return fileHandler().createAtomicOutput(path);
+    }
+
+    /**
+     * Enciphers a plain text file into a new file in the data folder, so it can be
+     * listed and deciphered with the same key. ASCII keys work on the raw bytes when the
+     * platform charset passes them through (UTF-8, ISO-8859-1); otherwise the text goes
+     * through a Reader/Writer in the platform charset.
+     *
+     * @param plainPath Path of the plain text file.
+     * @param filename  Name of the new .txt (or .txt.gz) file in the data folder (must not exist yet).
+     * @param keyPath   Key file path.
+     */
+    public void encipherFile(String plainPath, String filename, String keyPath) throws IOException {
+        CipherKey key = loadKey(keyPath);
+
+        // Written under a temporary name, so a failure never leaves a partial data file behind
+        try (InputStream in = fileHandler().openPlainFile(plainPath);
+             FileHandler.AtomicOutput file = fileHandler().createAtomicDataFile(filename)) {
+            OutputStream out = file.stream();
+            if (key.isAscii() && FileHandler.passesBytesThrough(Charset.defaultCharset())) {
+                cipher().encipher(in, out, key);
+            } else {
+                Writer writer = new OutputStreamWriter(out);
+                cipher().encipher(new InputStreamReader(in), writer, key);
+                writer.flush();
+            }
+            out.close();
+            file.commit();
+        }
+    }
+
+    /**
+     * Streams the deciphered lines firstLine to lastLine (1-based, inclusive) of a file
+     * to out in the platform charset. Only that range of the file is read and decoded.
+     */
+    public void writeFileLines(int fileIndex, String keyPath, long firstLine, long lastLine, OutputStream out)
+            throws IOException {
+        String filename = getFilename(fileIndex);
+        CipherKey key = loadKey(keyPath);
+        Reader in;
+        try {
+            in = fileHandler().openLines(filename, firstLine, lastLine);
+        } catch (Exception e) {
+            throw new RuntimeException("Error reading file: " + filename, e);
+        }
+
+        Writer writer = new OutputStreamWriter(out);
+        try (in) {
+            cipher().decipher(in, writer, key);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Compiles a text key into the binary key format, which loads without parsing.
+     * outputPath is replaced atomically, once the compiled key is complete.
+     */
+    public void compileKey(String keyPath, String outputPath) throws IOException {
+        try (FileHandler.AtomicOutput out = fileHandler().createAtomicOutput(outputPath)) {
+            cipher().compileKey(keyPath, out);
+            out.commit();
+        }
+    }
+
+    /**
+     * Infers a likely key for a file whose key is lost and writes it in the two-line
+     * key format. The plain text is assumed to be English unless referencePath names
+     * a plain text file in the expected language to train the model from.
+     *
+     * @param fileIndex     1-based file number.
+     * @param outputPath    Key file to write (replaced atomically).
+     * @param referencePath Plain reference text, or null for the built-in English model.
+     * @return The recovered key and its confidence.
+     */
+    public KeyRecovery.Result recoverKey(int fileIndex, String outputPath, String referencePath)
+            throws IOException {
+        String filename = getFilename(fileIndex);
+        String cipherText = fileHandler().readFile(filename);
+
+        KeyRecovery recovery;
+        if (referencePath == null) {
+            recovery = new KeyRecovery();
+        } else {
+            String reference;
+            try (InputStream in = fileHandler().openPlainFile(referencePath)) {
+                reference = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            recovery = new KeyRecovery(KeyRecovery.Model.train(reference));
+        }
+        KeyRecovery.Result result = recovery.recover(cipherText);
+
+        String keyFile = result.getActualLine() + "\n" + result.getCipherLine() + "\n";
+        try (FileHandler.AtomicOutput out = fileHandler().createAtomicOutput(outputPath)) {
+            out.write(ByteBuffer.wrap(keyFile.getBytes(StandardCharsets.UTF_8)));
+            out.commit();
+        }
+        return result;
+    }
+
+    /**
+     * Receives deciphered files in order from forEachFileContent.
+     */
+    public interface FileContentConsumer {
+        void accept(int fileNumber, String filename, String content) throws IOException;
+    }
+
+    /**
+     * Deciphers several files with one shared key and hands each one to consumer in the
+     * order of fileIndices, together with the file name it was read from. Files are
+     * deciphered concurrently, but at most BATCH_PREFETCH of them ahead of the one being
+     * consumed, so memory stays bounded however many files there are.
+     */
+    public void forEachFileContent(List<Integer> fileIndices, String keyPath, FileContentConsumer consumer)
+            throws IOException {
+        List<String> filenames = getFilenames(fileIndices);
+        CipherKey key = loadKey(keyPath);
+
+        ExecutorService executor = newBatchExecutor();
+        try {
+            ArrayDeque<Future<String>> window = new ArrayDeque<>();
+            int next = 0;
+            for (int i = 0; i < filenames.size(); i++) {
+                for (; next < filenames.size() && next <= i + BATCH_PREFETCH; next++) {
+                    String filename = filenames.get(next);
+                    window.addLast(executor.submit(PipelineStats.inCurrentRequest(() -> decipherFile(filename, key))));
+                }
+                consumer.accept(fileIndices.get(i), filenames.get(i), window.removeFirst().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while processing files", e);
+        } catch (ExecutionException e) {
+            throw rethrow(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Deciphers several files concurrently with one shared key.
+     * Results are returned in the same order as fileIndices.
+     */
+    public List<String> getFileContents(List<Integer> fileIndices, String keyPath) throws IOException {
+        List<String> filenames = getFilenames(fileIndices);
+        CipherKey key = loadKey(keyPath);
+
+        return runBatch(filenames, (i, filename) -> decipherFile(filename, key));
+    }
+
+    /**
+     * Reads and deciphers a whole file, through the result cache if one is set.
+     * A result is only cached if the file did not change while it was read.
+     */
+    private String decipherFile(String filename, CipherKey key) throws IOException {
+        ResultCache cache = resultCache;
+        ResultCache.Key id = cache == null ? null : cacheKey(filename, key);
+        if (id != null) {
+            String cached = cache.get(id);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        String cipherText;
+        try {
+            cipherText = fileHandler().readFile(filename);
+        } catch (Exception e) {
+            throw new RuntimeException("Error reading file: " + filename, e);
+        }
+        String text = cipher().decipher(cipherText, key);
+
+        if (id != null && id.equals(cacheKey(filename, key))) {
+            cache.put(id, text);
+        }
+        return text;
+    }
+
+    private ResultCache.Key cacheKey(String filename, CipherKey key) throws IOException {
+        try {
+            return new ResultCache.Key(filename, fileHandler().lastModified(filename),
+                    fileHandler().fileSize(filename), key.fingerprint());
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading file: " + filename, e);
+        }
+    }
+
+    /**
+     * Deciphers several files concurrently with one shared key, streaming each one
+     * to a ".out" file next to it in the data folder (e.g. filea.txt -> filea.txt.out).
+     * Returns the output file names in the same order as fileIndices.
+     */
+    public List<String> writeFileContents(List<Integer> fileIndices, String keyPath) throws IOException {
+        List<String> filenames = getFilenames(fileIndices);
+        CipherKey key = loadKey(keyPath);
+
+        return runBatch(filenames, (i, filename) -> {
+            String outName = outputName(filename);
+            try (OutputStream out = fileHandler().createOutputFile(outName)) {
+                streamFile(filename, key, out);
+            }
+            return outName;
+        });
+    }
+
+    /**
+     * The data file name plus ".out", so filea.txt and filea.txt.gz never write to the same file.
+     */
+    static String outputName(String filename) {
+        return filename + ".out";
+    }
+
+    private void streamFile(String filename, CipherKey key, OutputStream out) throws IOException {
+        if (canMap(filename, key)) {
+            cipher().decipher(fileHandler().mapFile(filename), out, key);
+            return;
+        }
+        streamText(filename, key, out);
+    }
+
+    private boolean canMap(String filename, CipherKey key) throws IOException {
+        return key.isAscii() && FileHandler.passesBytesThrough(Charset.defaultCharset())
+                && fileHandler().shouldMap(filename);
+    }
+
+    private void streamText(String filename, CipherKey key, OutputStream out) throws IOException {
+        Reader in;
+        try {
+            in = fileHandler().openFile(filename);
+        } catch (Exception e) {
+            throw new RuntimeException("Error reading file: " + filename, e);
+        }
+
+        Writer writer = new OutputStreamWriter(out);
+        try (in) {
+            cipher().decipher(in, writer, key);
+        }
+        writer.flush();
+    }
+
+    /**
+     * A line of a data file that contains a search pattern.
+     */
+    public static final class SearchResult {
+        private final int fileNumber;
+        private final String filename;
+        private final long line;
+        private final long offset;
+        private final String text;
+
+        SearchResult(int fileNumber, String filename, long line, long offset, String text) {
+            this.fileNumber = fileNumber;
+            this.filename = filename;
+            this.line = line;
+            this.offset = offset;
+            this.text = text;
+        }
 
+        /** File number as shown in the listing (1-based). */
+        public int getFileNumber() {
+            return fileNumber;
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+
+        /** Line number (1-based). */
+        public long getLine() {
+            return line;
+        }
+
+        /** Byte offset of the match from the start of the (uncompressed) file. */
+        public long getOffset() {
+            return offset;
+        }
+
+        /** The deciphered line. */
+        public String getText() {
+            return text;
+        }
+    }
+
+    /**
+     * Searches every data file for a plain text pattern without deciphering the files.
+     * The pattern is enciphered once and the ciphertext is scanned for it directly
+     * (memory-mapped for large plain files), one file per thread. Only the matching
+     * lines are deciphered. Results are in file order, then line order.
+     *
+     * @throws IllegalArgumentException if the pattern is empty, contains a line break, or
+     *                                  enciphers to characters the platform charset cannot encode.
+     * @throws IllegalStateException    if the platform charset is not ASCII-compatible.
+     */
+    public List<SearchResult> search(String pattern, String keyPath) throws IOException {
+        Charset charset = Charset.defaultCharset();
+        if (!FileHandler.isAsciiCompatible(charset)) {
+            throw new IllegalStateException("Searching requires an ASCII-compatible charset, not " + charset);
+        }
+        if (pattern == null || pattern.isEmpty()) {
+            throw new IllegalArgumentException("Search pattern cannot be empty");
+        }
+        CipherKey key = loadKey(keyPath);
+        PatternSearch search = new PatternSearch(encodePattern(cipher().encipher(pattern, key), charset));
+
+        List<String> filenames = getFileList();
+        List<List<SearchResult>> perFile = runBatch(filenames, (i, filename) -> {
+            List<PatternSearch.Hit> hits;
+            try {
+                if (!FileHandler.isCompressed(filename) && fileHandler().shouldMap(filename)) {
+                    hits = search.search(fileHandler().mapFile(filename), FileHandler.MAP_SEGMENT_SIZE);
+                } else {
+                    try (InputStream in = fileHandler().openStream(filename)) {
+                        hits = search.search(in);
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Error reading file: " + filename, e);
+            }
+
+            int fileNumber = i + 1;
+            List<SearchResult> results = new ArrayList<>();
+            for (PatternSearch.Hit hit : hits) {
+                String text = cipher().decipher(new String(hit.getLineBytes(), charset), key);
+                results.add(new SearchResult(fileNumber, filename, hit.getLine(), hit.getOffset(), text));
+            }
+            return results;
+        });
+
+        List<SearchResult> results = new ArrayList<>();
+        for (List<SearchResult> fileResults : perFile) {
+            results.addAll(fileResults);
+        }
+        return results;
+    }
+
+    /**
+     * Encodes an enciphered search pattern strictly. String.getBytes would turn characters
+     * the charset cannot encode into '?', and the search would then look for the wrong bytes.
+     */
+    private static byte[] encodePattern(String pattern, Charset charset) {
+        try {
+            ByteBuffer bytes = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .encode(CharBuffer.wrap(pattern));
+            byte[] encoded = new byte[bytes.remaining()];
+            bytes.get(encoded);
+            return encoded;
+        } catch (CharacterCodingException e) {
+            throw new IllegalArgumentException("Search pattern cannot be encoded in " + charset, e);
+        }
+    }
+
+    private interface FileTask<T> {
+        /** Runs for filenames.get(index). */
+        T run(int index, String filename) throws IOException;
+    }
+
+    /**
+     * Runs task for every file on its own thread and collects the results in order.
+     * The first failure is rethrown after the remaining tasks are cancelled.
+     */
+    private static <T> List<T> runBatch(List<String> filenames, FileTask<T> task) throws IOException {
+        ExecutorService executor = newBatchExecutor();
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (int i = 0; i < filenames.size(); i++) {
+                int index = i;
+                String filename = filenames.get(i);
+                futures.add(executor.submit(PipelineStats.inCurrentRequest(() -> task.run(index, filename))));
+            }
+
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while processing files", e);
+        } catch (ExecutionException e) {
+            throw rethrow(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Rethrows the cause of a failed batch task as is if it is unchecked, or returns it as
+     * an IOException for the caller to throw.
+     */
+    private static IOException rethrow(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new RuntimeException(cause);
+    }
+
+    /**
+     * Uses a virtual thread per task when the runtime supports it (Java 21+),
+     * otherwise a fixed pool sized to the number of cores.
+     */
+    static ExecutorService newBatchExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    private List<String> getFilenames(List<Integer> fileIndices) {
+        List<String> files = getFileList();
+        List<String> filenames = new ArrayList<>();
+        for (int fileIndex : fileIndices) {
+            if (fileIndex < 1 || fileIndex > files.size()) {
+                throw new IllegalArgumentException("Invalid file index: " + fileIndex);
+            }
+            filenames.add(files.get(fileIndex - 1));
+        }
+        return filenames;
+    }
+
+    private String getFilename(int fileIndex) {
+        List<String> files = getFileList();
+        if (fileIndex < 1 || fileIndex > files.size()) {
+            throw new IllegalArgumentException("Invalid file index: " + fileIndex);
+        }
+        return files.get(fileIndex - 1);
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Plain English used to train the default KeyRecovery model. Any ordinary prose
+ * works; this is a few pages of everyday writing with the usual mix of sentence
+ * starts, names and numbers. A larger or more specific reference can be passed to
+ * KeyRecovery.Model.train instead.
+ */
+final class ReferenceText {
+
+    private ReferenceText() {
+    }
+
+    static final String ENGLISH = """
+            The morning train was late again, and the people on the platform did what people always do
+            when a train is late. Some of them looked at their watches, some of them looked at their
+            phones, and a few of them looked down the track as if they could make the train appear by
+            staring hard enough. A woman with a red umbrella said that it had been late every day this
+            week. The man next to her agreed and said that he would write a letter to the company, but
+            he did not sound as though he really meant it.
+
+            When the train finally arrived it was crowded, and there were no seats left by the time I
+            got on. I stood near the door and read the notices on the wall. One of them asked passengers
+            to report anything that looked suspicious. Another said that the line would be closed for
+            repairs on the first two weekends of the month. I made a note of the dates, because I knew I
+            would forget them otherwise, and then I spent the rest of the journey thinking about what I
+            had to do that day.
+
+            There was a meeting at ten, a report that was already three days overdue, and a long list of
+            messages that I had not answered. None of it was difficult. It was simply the kind of work
+            that piles up when you are not paying attention, and I had not been paying attention for
+            some time. My manager was a patient person, but even patient people have their limits, and I
+            had the feeling that I was getting close to hers.
+
+            The office was quiet when I arrived. Most of the others were still on their way in, held up by
+            the same train or by the traffic on the bridge. I made a cup of coffee, sat down at my desk
+            and opened the report. It was about the number of visitors to the museum over the last year,
+            which had gone up in the spring and down again in the autumn. Nobody was sure why. One theory
+            was that the new exhibition had drawn people in, and that they had stopped coming once it
+            closed. Another was that the weather had simply been better in the first half of the year.
+
+            I spent an hour going through the figures. In April there had been just over 18000 visitors,
+            almost twice as many as in the same month the year before. In October the number had fallen
+            to about 7500, which was lower than it had been for five years. The museum wanted to know
+            what had happened, and more importantly, what they could do about it. It was my job to give
+            them an answer, or at least something that looked like an answer.
+
+            At ten o'clock I went to the meeting. There were six of us around the table, and the
+            discussion was mostly about money. The budget for next year had been cut, and everyone had to
+            decide which of their projects they could live without. Nobody wanted to go first. In the end
+            the director made the decision for us, as directors usually do, and we all went back to our
+            desks feeling slightly worse than we had before.
+
+            After lunch I walked to the park to clear my head. It was a cold, bright afternoon, and the
+            paths were full of people walking their dogs. A group of children were playing football on
+            the grass while their parents watched from a bench and talked among themselves. I sat down on
+            a wall by the pond and watched the ducks for a while. There is something calming about ducks.
+            They never seem to be in a hurry, and they never seem to worry about anything at all.
+
+            My grandmother used to say that the best way to solve a problem was to stop thinking about it
+            for a while. She would go into the garden and pull up weeds, or bake a loaf of bread, or sit
+            by the window with a book, and sooner or later the answer would come to her. I have never been
+            very good at following her advice. When I have a problem, I tend to think about it all the
+            time, which usually makes it worse. But that afternoon, sitting by the pond, I found that I
+            was not thinking about the report at all.
+
+            When I got back to the office, I opened the figures again and looked at them with fresh eyes.
+            This time I noticed something I had missed before. The fall in visitors had not started in
+            October at all. It had started in July, when the price of a ticket went up from 8 to 12
+            pounds. The change had been small at first, and it had been hidden by the summer holidays,
+            when families visit the museum whatever the price. But once the schools went back, the
+            numbers had dropped quickly.
+
+            I wrote this down and then spent the rest of the afternoon checking it. I compared the museum
+            with two others in the same city, which had not raised their prices, and found that their
+            numbers had stayed much the same. I looked at the weather records for the year and found that
+            the autumn had been no wetter than usual. I even rang the woman who ran the ticket office,
+            who told me that several people had complained about the new price and a few had turned
+            around and walked out.
+
+            By six o'clock I had a draft that I was reasonably happy with. It was not perfect, and there
+            were still some questions I could not answer, but it was better than nothing, and it was
+            certainly better than the empty page I had started with that morning. I sent it to my
+            manager with a short note, switched off my computer and went home.
+
+            The train home was on time for once. I found a seat by the window and watched the lights of
+            the city go past. The woman with the red umbrella was in the same carriage, reading a
+            newspaper. She looked up as I sat down and smiled, as if we were old friends, and I smiled
+            back. It is strange how you can see the same people every day for years and never learn their
+            names.
+
+            At home I cooked a simple dinner of rice and vegetables and ate it in front of the television.
+            There was a program about the history of the railways, which seemed appropriate. It explained
+            how the first lines had been built almost two hundred years ago, and how they had changed the
+            way people lived and worked. Before the railways, most people never travelled more than a few
+            miles from the place where they were born. Afterwards, they could cross the whole country in
+            a single day.
+
+            I went to bed early and slept well for the first time in weeks. In the morning there was an
+            email from my manager waiting for me. She said that the report was good, that the museum
+            would be pleased, and that she would like me to present it at their board meeting the
+            following Thursday. I read the message twice to make sure I had understood it, and then I
+            made a cup of coffee and sat for a while by the window, watching the rain.
+
+            The board meeting was held in a long room on the top floor of the museum, with tall windows
+            that looked out over the river. There were eleven people around the table, most of them
+            older than me, and all of them dressed more smartly than I was. The chairman was a tall man
+            with grey hair and a quiet voice, and he listened carefully while I explained what I had
+            found. When I had finished, there was a long silence.
+
+            Then one of the members asked whether we could be sure that the price was the only reason.
+            I said that we could not be completely sure, but that it was by far the most likely
+            explanation, and that there was an easy way to find out. If the museum lowered the price for
+            a few months and the numbers went up again, we would know. The chairman nodded slowly and
+            said that it seemed a sensible suggestion. Then he thanked me, and the meeting moved on to
+            other business.
+
+            A week later the museum announced that tickets would be free on the first Sunday of every
+            month, and that the normal price would go back down to 10 pounds from the start of the new
+            year. I read about it in the newspaper on the train, and I felt a small, private sense of
+            pride. It was not a great achievement, and nobody else on the train knew or cared that I had
+            anything to do with it. But it was something, and it was mine.
+
+            Spring came early that year. The trees along the river were in flower by the middle of March,
+            and the evenings grew longer and warmer. I started walking home from the station instead of
+            taking the bus, and on some days I went the long way round, through the old streets near the
+            cathedral, where the shops sold books and maps and strange pieces of furniture that nobody
+            seemed to buy. I liked to look in the windows and imagine who had owned these things before,
+            and what their lives had been like.
+
+            One evening I stopped at a small bookshop and went inside. The owner was an elderly man who
+            sat behind the counter with a cat on his lap. He asked if I was looking for anything in
+            particular, and I said that I was just looking. He told me to take my time. I wandered
+            between the shelves for nearly an hour and came out with three books, none of which I had
+            meant to buy: a guide to the birds of the river valley, a collection of old letters, and a
+            novel by a writer I had never heard of.
+
+            I read the novel that weekend. It was about a family who ran a hotel by the sea, and about
+            the guests who came and went over the course of one long summer. Not much happened in it,
+            but I found that I could not put it down. The writer had a way of noticing small things, the
+            sound of the waves at night, the smell of the kitchen in the morning, the way people talk
+            when they think nobody is listening, and by the end of the book I felt as though I had spent
+            the summer there myself.
+
+            When I went back to the shop to look for more of her books, the owner told me that she had
+            written only two. The other one was out of print, he said, but he thought he might be able to
+            find a copy. He wrote my name and number on a piece of paper and put it in a drawer. I did not
+            expect to hear from him again, but a month later he called to say that the book had arrived.
+            It was an old copy with a torn cover and someone else's name written inside, and I have
+            never owned anything I liked more.
+            """;
+}
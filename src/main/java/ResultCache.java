@@ -0,0 +1,382 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deciphered file contents kept for reuse, keyed by file name, the file's
+ * last-modified time and size, and the key's fingerprint. A changed file or a
+ * different key therefore never sees an old result.
+ *
+ * Entries are held in memory up to a byte budget (2 bytes per char) and evicted
+ * least recently used first. If a spill directory is set, evicted entries are
+ * written there and read back on a later miss, so a result deciphered once can
+ * outlive its place in memory (and the process). Spilled files hold plain text:
+ * the directory must be accessible by its owner only (it is created that way),
+ * and clear() deletes them. Spill I/O goes through FileHandler.
+ *
+ * The spill directory has a byte budget of its own, also evicted least recently
+ * used first (files left by an earlier process count from oldest to newest).
+ * A file name keeps at most one spill file: spilling or caching it under a new
+ * key deletes the old one, so a data file that keeps changing leaves no trail.
+ *
+ * Safe for concurrent use. Disk writes happen outside the lock.
+ */
+public class ResultCache {
+
+    /** Rough per-entry overhead counted against the budget besides the text itself. */
+    static final int ENTRY_OVERHEAD = 64;
+
+    /** Spill directory budget used when none is given. */
+    static final long DEFAULT_MAX_SPILL_BYTES = 1L << 30;
+
+    private static final String SPILL_SUFFIX = ".spill";
+
+    private final long maxBytes;
+    private final Path spillDir;
+    private final long maxSpillBytes;
+    private final LinkedHashMap<Key, String> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    // Spill files by name with their sizes, least recently used first, and the spill
+    // file of each data file name (when known). Guarded by spills.
+    private final LinkedHashMap<String, Long> spills = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, String> spillOfFile = new HashMap<>();
+    private long spillBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong spillHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxBytes Memory budget in bytes (0 keeps nothing in memory).
+     * @param spillDir Directory for evicted entries, or null to drop them.
+     *                 It may hold up to DEFAULT_MAX_SPILL_BYTES.
+     */
+    public ResultCache(long maxBytes, Path spillDir) throws IOException {
+        this(maxBytes, spillDir, DEFAULT_MAX_SPILL_BYTES);
+    }
+
+    /**
+     * @param maxBytes      Memory budget in bytes (0 keeps nothing in memory).
+     * @param spillDir      Directory for evicted entries, or null to drop them.
+     * @param maxSpillBytes Disk budget of the spill directory in bytes.
+     */
+    public ResultCache(long maxBytes, Path spillDir, long maxSpillBytes) throws IOException {
+        if (maxBytes < 0 || maxSpillBytes < 0) {
+            throw new IllegalArgumentException("Cache budget cannot be negative");
+        }
+        this.maxBytes = maxBytes;
+        this.spillDir = spillDir;
+        this.maxSpillBytes = maxSpillBytes;
+        if (spillDir != null) {
+            FileHandler.createPrivateDirectory(spillDir);
+            loadSpills();
+        }
+    }
+
+    /**
+     * Counts the spill files an earlier process left, oldest first, and trims them to the budget.
+     */
+    private void loadSpills() throws IOException {
+        Map<Path, Long> files = FileHandler.listBySuffix(spillDir, SPILL_SUFFIX);
+        List<String> victims;
+        synchronized (spills) {
+            for (Map.Entry<Path, Long> file : files.entrySet()) {
+                spills.put(file.getKey().getFileName().toString(), file.getValue());
+                spillBytes += file.getValue();
+            }
+            victims = trimSpills();
+        }
+        deleteSpills(victims);
+    }
+
+    /**
+     * Identifies one deciphered result.
+     */
+    public static final class Key {
+        private final String filename;
+        private final long modified;
+        private final long size;
+        private final String keyFingerprint;
+
+        public Key(String filename, long modified, long size, String keyFingerprint) {
+            this.filename = filename;
+            this.modified = modified;
+            this.size = size;
+            this.keyFingerprint = keyFingerprint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return modified == k.modified && size == k.size
+                    && filename.equals(k.filename) && keyFingerprint.equals(k.keyFingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(filename, modified, size, keyFingerprint);
+        }
+
+        /** Name of the spill file: a digest, so neither the file name nor the key shows. */
+        String spillName() {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                byte[] id = (filename + '\0' + modified + '\0' + size + '\0' + keyFingerprint)
+                        .getBytes(StandardCharsets.UTF_8);
+                return HexFormat.of().formatHex(digest.digest(id)) + SPILL_SUFFIX;
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the cached text for key, from memory or the spill directory, or null.
+     */
+    public String get(Key key) {
+        String text;
+        synchronized (this) {
+            text = entries.get(key);
+        }
+        if (text != null) {
+            hits.incrementAndGet();
+            return text;
+        }
+
+        text = readSpilled(key);
+        if (text == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        spillHits.incrementAndGet();
+        putInMemory(key, text);
+        return text;
+    }
+
+    /**
+     * Caches text under key, evicting least recently used entries to stay within budget.
+     * A spill file of the same file name under another key is deleted.
+     */
+    public void put(Key key, String text) {
+        if (spillDir != null) {
+            List<String> victims;
+            synchronized (spills) {
+                victims = forgetOtherSpill(key.filename, key.spillName());
+            }
+            deleteSpills(victims);
+        }
+        putInMemory(key, text);
+    }
+
+    private void putInMemory(Key key, String text) {
+        List<Map.Entry<Key, String>> evicted = new ArrayList<>();
+        long size = sizeOf(text);
+        synchronized (this) {
+            String old = entries.remove(key);
+            if (old != null) {
+                bytes -= sizeOf(old);
+            }
+            if (size <= maxBytes) {
+                entries.put(key, text);
+                bytes += size;
+            } else {
+                evicted.add(Map.entry(key, text));
+            }
+
+            Iterator<Map.Entry<Key, String>> eldest = entries.entrySet().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<Key, String> e = eldest.next();
+                eldest.remove();
+                bytes -= sizeOf(e.getValue());
+                evicted.add(Map.entry(e.getKey(), e.getValue()));
+            }
+        }
+        evictions.addAndGet(evicted.size());
+        for (Map.Entry<Key, String> e : evicted) {
+            spill(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Drops every entry, in memory and on disk.
+     */
+    public void clear() throws IOException {
+        synchronized (this) {
+            entries.clear();
+            bytes = 0;
+        }
+        synchronized (spills) {
+            spills.clear();
+            spillOfFile.clear();
+            spillBytes = 0;
+        }
+        if (spillDir != null && FileHandler.exists(spillDir)) {
+            for (Path file : FileHandler.listBySuffix(spillDir, SPILL_SUFFIX).keySet()) {
+                FileHandler.deleteIfExists(file);
+            }
+        }
+    }
+
+    private void spill(Key key, String text) {
+        if (spillDir == null) {
+            return;
+        }
+        String name = key.spillName();
+        Path target = spillDir.resolve(name);
+        if (FileHandler.exists(target)) {
+            return;
+        }
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        if (data.length > maxSpillBytes) {
+            return;
+        }
+        try (FileHandler.AtomicOutput out = FileHandler.createPrivateFile(target)) {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            out.commit();
+        } catch (IOException e) {
+            // The spill directory is only an optimization; losing an entry costs a re-decipher.
+            // A concurrent spill of the same entry also ends up here, having lost the race.
+            return;
+        }
+
+        List<String> victims;
+        synchronized (spills) {
+            victims = forgetOtherSpill(key.filename, name);
+            if (spills.put(name, (long) data.length) == null) {
+                spillBytes += data.length;
+            }
+            spillOfFile.put(key.filename, name);
+            victims.addAll(trimSpills());
+        }
+        deleteSpills(victims);
+    }
+
+    /**
+     * Drops the spill file recorded for filename unless it is keep. Returns the file to delete.
+     * Call while holding spills.
+     */
+    private List<String> forgetOtherSpill(String filename, String keep) {
+        List<String> victims = new ArrayList<>();
+        String old = spillOfFile.get(filename);
+        if (old != null && !old.equals(keep)) {
+            spillOfFile.remove(filename);
+            Long size = spills.remove(old);
+            if (size != null) {
+                spillBytes -= size;
+            }
+            victims.add(old);
+        }
+        return victims;
+    }
+
+    /**
+     * Drops least recently used spill files until the directory is within budget.
+     * Returns the files to delete. Call while holding spills.
+     */
+    private List<String> trimSpills() {
+        List<String> victims = new ArrayList<>();
+        Iterator<Map.Entry<String, Long>> eldest = spills.entrySet().iterator();
+        while (spillBytes > maxSpillBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> e = eldest.next();
+            eldest.remove();
+            spillBytes -= e.getValue();
+            victims.add(e.getKey());
+        }
+        if (!victims.isEmpty()) {
+            spillOfFile.values().removeAll(victims);
+        }
+        return victims;
+    }
+
+    private void deleteSpills(List<String> names) {
+        for (String name : names) {
+            deleteQuietly(spillDir.resolve(name));
+        }
+    }
+
+    private String readSpilled(Key key) {
+        if (spillDir == null) {
+            return null;
+        }
+        String name = key.spillName();
+        synchronized (spills) {
+            if (spills.get(name) == null) {
+                return null;
+            }
+        }
+        try {
+            return FileHandler.readPrivateFile(spillDir.resolve(name));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            FileHandler.deleteIfExists(file);
+        } catch (IOException ignored) {
+            // nothing else to do
+        }
+    }
+
+    private static long sizeOf(String text) {
+        return 2L * text.length() + ENTRY_OVERHEAD;
+    }
+
+    /** Lookups answered from memory. */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** Lookups answered from the spill directory. */
+    public long getSpillHits() {
+        return spillHits.get();
+    }
+
+    /** Lookups that found nothing. */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Entries pushed out of memory (and spilled, if a spill directory is set). */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /** Bytes currently counted against the memory budget. */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /** Bytes currently held in the spill directory. */
+    public long getSpillBytes() {
+        synchronized (spills) {
+            return spillBytes;
+        }
+    }
+
+    /** Number of entries currently in memory. */
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -1,11 +1,21 @@
 /**
  * Commmand Line Utility
+ *
+ * java TopSecret --serve [--port N] starts a resident daemon for the working directory.
+ * Any other invocation is forwarded to that daemon if one is running, and handled
+ * in this JVM otherwise.
+ *
+ * Startup is kept lazy: FileHandler and Cipher are only built once a command needs them.
+ * See the cdsArchive Gradle task for a class-data-sharing archive that speeds up JVM start.
  */
 public class TopSecret {
     public static void main(String[] args) {
-        FileHandler fileHandler = new FileHandler();
-        Cipher cipher = new Cipher();
-        ProgramControl control = new ProgramControl(fileHandler, cipher);
+        // Never forwards commands the daemon refuses, such as --serve itself
+        if (DecipherClient.forward(args, System.out, System.err)) {
+            return;
+        }
+
+        ProgramControl control = new ProgramControl(Cipher::new, FileHandler::new);
         Userinterface ui = new Userinterface(control);
         ui.run(args);
     }
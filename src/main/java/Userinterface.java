@@ -1,5 +1,17 @@
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 
 /**
@@ -7,9 +19,24 @@ import java.util.List;
  * Responsible for CLI argument validation and terminal output.
  */
 public class Userinterface {
+    /** Files per page when --page is given without --limit. */
+    static final int DEFAULT_PAGE_SIZE = 50;
+
+    // Commands that read or write files outside data/ and ciphers/ with the caller's arguments
+    private static final Set<String> LOCAL_ONLY = Set.of(
+            "--serve", "--encipher", "--compile-key", "--recover-key", "--output");
+
+    // Options followed by a value that is not a path
+    private static final Set<String> WITH_VALUE = Set.of(
+            "--search", "--lines", "--page", "--limit", "--prefix", "--files");
+
     private ProgramControl control;
     private PrintStream out;
     private PrintStream err;
+    // Channel on the process's stdout for writing file contents without a PrintStream. Null if out is not stdout.
+    private WritableByteChannel stdout;
+    // Set while running a command with --output <file>
+    private String outputPath;
     /**
      * Constructor using Dependency Injection.
      * Allows passing a mock for testing or a real object for production.
@@ -18,6 +45,7 @@ public class Userinterface {
         this.control = control;
         this.out = System.out;
         this.err = System.err;
+        this.stdout = new FileOutputStream(FileDescriptor.out).getChannel();
     }
 
     // New constructor for tests
@@ -35,9 +63,85 @@ public class Userinterface {
             return;
         }
 
+        List<String> argList = new ArrayList<>(Arrays.asList(args));
+        if (argList.remove("--stats")) {
+            try (PipelineStats.Request request = PipelineStats.beginRequest()) {
+                try {
+                    run(argList.toArray(new String[0]));
+                } finally {
+                    request.printSummary(err);
+                }
+            }
+            return;
+        }
+
+        int outputAt = argList.indexOf("--output");
+        if (outputAt >= 0) {
+            if (outputAt + 1 >= argList.size()) {
+                printError("--output requires a file name");
+                return;
+            }
+            String path = argList.remove(outputAt + 1);
+            argList.remove(outputAt);
+            // Only showing one file writes to outputPath; every other mode would ignore it
+            if (argList.isEmpty() || (argList.get(0).startsWith("--") && !"--lines".equals(argList.get(0)))) {
+                printError("--output only applies when showing one file (e.g. 01 --output plain.txt)");
+                return;
+            }
+            outputPath = path;
+            try {
+                run(argList.toArray(new String[0]));
+            } finally {
+                outputPath = null;
+            }
+            return;
+        }
+
+        if (args.length > 0 && "--serve".equals(args[0])) {
+            handleServe(args);
+            return;
+        }
+
+        if (args.length > 0 && "--search".equals(args[0])) {
+            handleSearch(args);
+            return;
+        }
+
+        if (args.length > 0 && "--compile-key".equals(args[0])) {
+            handleCompileKey(args);
+            return;
+        }
+
+        if (args.length > 0 && "--recover-key".equals(args[0])) {
+            handleRecoverKey(args);
+            return;
+        }
+
+        if (args.length > 0 && "--encipher".equals(args[0])) {
+            handleEncipher(args);
+            return;
+        }
+
+        if (args.length > 0 && ("--page".equals(args[0]) || "--limit".equals(args[0])
+                || "--prefix".equals(args[0]))) {
+            handleListPage(args);
+            return;
+        }
+
+        if (args.length > 0 && ("--all".equals(args[0]) || "--files".equals(args[0]))) {
+            handleBatch(args);
+            return;
+        }
+
+        int linesAt = argList.indexOf("--lines");
+        if (linesAt >= 0) {
+            handleLines(argList, linesAt);
+            return;
+        }
+
         switch (args.length) {
             case 0:
-                handleListFiles();
+                handleListFiles(null, 1, 0);
                 break;
             case 1:
                 handleDisplayFile(args[0], "ciphers/key.txt");
@@ -51,7 +155,125 @@ public class Userinterface {
         }
     }
 
-    private void handleListFiles() {
+    /**
+     * Daemon mode: --serve [--port N] keeps this process (and control's caches) running
+     * for TopSecret clients, on the Unix socket or on localhost port N. Blocks until exit.
+     */
+    private void handleServe(String[] args) {
+        Integer port = null;
+        if (args.length == 3 && "--port".equals(args[1]) && args[2].matches("\\d{1,5}")
+                && Integer.parseInt(args[2]) <= 65535) {
+            port = Integer.parseInt(args[2]);
+        } else if (args.length != 1) {
+            printError("Usage: --serve [--port N] with N from 0 to 65535");
+            return;
+        }
+
+        if (control == null) {
+            printError("Control is not configured");
+            return;
+        }
+
+        try {
+            DecipherServer server = port == null
+                    ? DecipherServer.unixSocket(control, DecipherServer.defaultSocketFile())
+                    : DecipherServer.tcp(control, port);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    server.close();
+                } catch (IOException e) {
+                    // Exiting anyway
+                }
+            }));
+            out.println("Serving on " + server.getAddress());
+            out.flush();
+            server.serve();
+        } catch (IOException e) {
+            err.println("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns why the daemon refuses args, or null if it runs them. Refused commands are
+     * those that read or write files outside the working directory on the caller's behalf;
+     * every remaining argument that could be a key path must be a relative path that
+     * stays inside the working directory.
+     */
+    static String remoteRejection(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg == null) {
+                return "Arguments cannot be null";
+            }
+            if (LOCAL_ONLY.contains(arg)) {
+                return arg + " is not available through the daemon";
+            }
+            if (WITH_VALUE.contains(arg)) {
+                i++;
+            } else if (!arg.startsWith("--") && !isValidFileNumber(arg) && !isConfined(arg)) {
+                return "Key files must be inside the working directory when using the daemon: " + arg;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isConfined(String path) {
+        try {
+            Path p = Paths.get(path);
+            return !p.isAbsolute() && !p.normalize().startsWith("..") && !path.startsWith("~");
+        } catch (InvalidPathException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Paged listing mode: any of --page <n>, --limit <n>, --prefix <name start>.
+     * --page alone shows DEFAULT_PAGE_SIZE files per page.
+     */
+    private void handleListPage(String[] args) {
+        String prefix = null;
+        int page = 0;
+        int limit = 0;
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                printError(args[i] + " requires a value");
+                return;
+            }
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--prefix":
+                    prefix = value;
+                    break;
+                case "--page":
+                    page = parsePositive(value);
+                    if (page < 1) {
+                        printError("--page requires a page number of 1 or more");
+                        return;
+                    }
+                    break;
+                case "--limit":
+                    limit = parsePositive(value);
+                    if (limit < 1) {
+                        printError("--limit requires a number of files of 1 or more");
+                        return;
+                    }
+                    break;
+                default:
+                    printError("Unknown listing option " + args[i]);
+                    return;
+            }
+        }
+        if (page > 0 && limit == 0) {
+            limit = DEFAULT_PAGE_SIZE;
+        }
+        handleListFiles(prefix, Math.max(page, 1), limit);
+    }
+
+    /**
+     * Lists the files whose names start with prefix (all if null), limit per page (0 for no limit).
+     * Numbers are positions in the full listing, so they work as file numbers in every mode.
+     */
+    private void handleListFiles(String prefix, int page, int limit) {
         out.println("Listing available files:");
 
         if (control == null) {
@@ -59,21 +281,112 @@ public class Userinterface {
             return;
         }
 
-        List<String> files = control.getFileList();
+        List<String> files;
+        try {
+            files = control.getFileList();
+        } catch (Exception e) {
+            err.println(e.toString());
+            printUsage();
+            return;
+        }
 
         if (files == null || files.isEmpty()) {
             out.println("No files available.");
             return;
         }
 
-        for (int i = 0; i < files.size(); i++) {
+        // The listing is sorted, so a prefix selects one contiguous range
+        int[] range = prefix == null ? new int[] {0, files.size()} : prefixRange(files, prefix);
+        int matching = range[1] - range[0];
+        if (matching == 0) {
+            out.println("No files available.");
+            return;
+        }
+
+        int from = range[0];
+        int to = range[1];
+        int pages = limit > 0 ? (int) (((long) matching + limit - 1) / limit) : 1;
+        if (page > pages) {
+            printError("Page " + page + " is out of range: there "
+                    + (pages == 1 ? "is 1 page" : "are " + pages + " pages"));
+            return;
+        }
+        if (limit > 0) {
+            from = (int) (range[0] + (long) (page - 1) * limit);
+            to = (int) Math.min((long) from + limit, range[1]);
+        }
+        for (int i = from; i < to; i++) {
             out.printf("%02d %s%n", i + 1, files.get(i));
         }
+        if (limit > 0) {
+            out.printf("Page %d of %d (%d files)%n", page, pages, matching);
+        }
+    }
+
+    /**
+     * Returns {from, to} such that sorted.subList(from, to) are exactly the names
+     * starting with prefix. Two binary searches, whatever the size of the list.
+     */
+    static int[] prefixRange(List<String> sorted, String prefix) {
+        int from = lowerBound(sorted, prefix);
+        int to = from;
+        if (!prefix.isEmpty() && prefix.charAt(prefix.length() - 1) != Character.MAX_VALUE) {
+            // First name after every name with the prefix: the prefix with its last char incremented
+            String after = prefix.substring(0, prefix.length() - 1) + (char) (prefix.charAt(prefix.length() - 1) + 1);
+            to = lowerBound(sorted, after);
+        } else {
+            while (to < sorted.size() && sorted.get(to).startsWith(prefix)) {
+                to++;
+            }
+        }
+        return new int[] {from, to};
+    }
+
+    // Index of the first name not less than key
+    private static int lowerBound(List<String> sorted, String key) {
+        int pos = Collections.binarySearch(sorted, key);
+        return pos >= 0 ? pos : -pos - 1;
+    }
+
+    private static int parsePositive(String s) {
+        return s != null && s.matches("\\d{1,9}") ? Integer.parseInt(s) : 0;
     }
 
     private void handleDisplayFile(String fileNum, String keyPath) {
+        handleDisplayFile(fileNum, keyPath, null);
+    }
+
+    /**
+     * Line range mode: <number> [key] --lines a-b displays lines a to b of the file.
+     */
+    private void handleLines(List<String> argList, int linesAt) {
+        if (linesAt + 1 >= argList.size()) {
+            printError("--lines requires a line range (e.g., 5000-5100)");
+            return;
+        }
+        long[] range = parseLineRange(argList.remove(linesAt + 1));
+        argList.remove(linesAt);
+        if (range == null) {
+            printError("Invalid line range. Use first-last with positive line numbers (e.g., 5000-5100).");
+            return;
+        }
+
+        switch (argList.size()) {
+            case 1:
+                handleDisplayFile(argList.get(0), "ciphers/key.txt", range);
+                break;
+            case 2:
+                handleDisplayFile(argList.get(0), argList.get(1), range);
+                break;
+            default:
+                printError(argList.isEmpty() ? "--lines requires a file number" : "Too many arguments");
+                break;
+        }
+    }
+
+    private void handleDisplayFile(String fileNum, String keyPath, long[] lines) {
         if (!isValidFileNumber(fileNum)) {
-            printError("Invalid file number. Must be two digits (e.g., 01).");
+            printError("Invalid file number. Must be at least two digits (e.g., 01 or 120).");
             return;
         }
 
@@ -90,17 +403,291 @@ public class Userinterface {
 
         try {
             int index = Integer.parseInt(fileNum);
-            String content = control.getFileContent(index, keyPath);
-            out.println(content);
+            if (outputPath != null) {
+                try (FileHandler.AtomicOutput file = control.openOutputFile(outputPath)) {
+                    writeContent(index, keyPath, lines, file);
+                    file.commit();
+                }
+                out.println(fileNum + " -> " + outputPath);
+                return;
+            }
+
+            // Stream the file so output starts before the whole file is decoded
+            WritableByteChannel target;
+            if (stdout != null) {
+                out.flush();
+                target = stdout;
+            } else {
+                target = Channels.newChannel(out);
+            }
+            writeContent(index, keyPath, lines, target);
+            out.println();
         } catch (Exception e) {
             err.println(e.toString());
             printUsage();
         }
     }
 
+    private void writeContent(int index, String keyPath, long[] lines, WritableByteChannel target)
+            throws IOException {
+        if (PipelineStats.isRecording()) {
+            target = PipelineStats.timed(target);
+        }
+        if (lines != null) {
+            control.writeFileLines(index, keyPath, lines[0], lines[1], Channels.newOutputStream(target));
+        } else {
+            control.writeFileContent(index, keyPath, target);
+        }
+    }
+
+    /**
+     * Batch mode: --all [key] [--out] or --files <list> [key] [--out],
+     * where list is comma separated numbers and ranges, e.g. 01,03,05-09.
+     */
+    private void handleBatch(String[] args) {
+        List<String> rest = new ArrayList<>(Arrays.asList(args).subList(1, args.length));
+        boolean toFiles = rest.remove("--out");
+
+        String spec = null;
+        if ("--files".equals(args[0])) {
+            if (rest.isEmpty()) {
+                printError("--files requires a list of file numbers (e.g., 01,03,05-09)");
+                return;
+            }
+            spec = rest.remove(0);
+        }
 
+        if (rest.size() > 1) {
+            printError("Too many arguments");
+            return;
+        }
+        String keyPath = rest.isEmpty() ? "ciphers/key.txt" : rest.get(0);
+        if (keyPath == null || keyPath.trim().isEmpty()) {
+            printError("Key file cannot be empty");
+            return;
+        }
+
+        if (control == null) {
+            printError("Control is not configured");
+            return;
+        }
+
+        try {
+            List<Integer> indices = spec == null
+                    ? allFileNumbers(control.getFileList().size())
+                    : parseFileNumbers(spec);
+            if (indices == null) {
+                printError("Invalid file list. Use file numbers of at least two digits (e.g., 01 or 120)"
+                        + " and ranges (e.g., 01,03,05-09).");
+                return;
+            }
+
+            if (toFiles) {
+                List<String> written = control.writeFileContents(indices, keyPath);
+                for (int i = 0; i < indices.size(); i++) {
+                    out.printf("%02d -> %s%n", indices.get(i), written.get(i));
+                }
+            } else {
+                // Each file is printed as soon as it and the ones before it are deciphered
+                control.forEachFileContent(indices, keyPath, (number, filename, content) -> {
+                    long start = PipelineStats.start();
+                    out.printf("== %02d %s ==%n", number, filename);
+                    out.println(content);
+                    PipelineStats.OUTPUT.record(start, content.length());
+                });
+            }
+        } catch (Exception e) {
+            err.println(e.toString());
+            printUsage();
+        }
+    }
+
+    /**
+     * Search mode: --search <text> [key] prints every line containing text as
+     * "<number> <file>:<line>:<byte offset>: <deciphered line>".
+     */
+    private void handleSearch(String[] args) {
+        if (args.length < 2 || args[1].isEmpty()) {
+            printError("--search requires the text to look for");
+            return;
+        }
+        if (args.length > 3) {
+            printError("Too many arguments");
+            return;
+        }
+        String keyPath = args.length == 3 ? args[2] : "ciphers/key.txt";
+        if (keyPath.trim().isEmpty()) {
+            printError("Key file cannot be empty");
+            return;
+        }
+
+        if (control == null) {
+            printError("Control is not configured");
+            return;
+        }
+
+        try {
+            List<ProgramControl.SearchResult> results = control.search(args[1], keyPath);
+            if (results.isEmpty()) {
+                out.println("No matches.");
+                return;
+            }
+            for (ProgramControl.SearchResult r : results) {
+                out.printf("%02d %s:%d:%d: %s%n", r.getFileNumber(), r.getFilename(), r.getLine(), r.getOffset(),
+                        r.getText());
+            }
+        } catch (Exception e) {
+            err.println(e.toString());
+            printUsage();
+        }
+    }
+
+    /**
+     * Key compile mode: --compile-key <key.txt> <key.tkey>
+     */
+    private void handleCompileKey(String[] args) {
+        if (args.length != 3) {
+            printError("--compile-key requires a key file and an output file (e.g., key.txt key.tkey)");
+            return;
+        }
+
+        if (control == null) {
+            printError("Control is not configured");
+            return;
+        }
+
+        try {
+            control.compileKey(args[1], args[2]);
+            out.println(args[1] + " -> " + args[2]);
+        } catch (Exception e) {
+            err.println(e.toString());
+            printUsage();
+        }
+    }
+
+    /**
+     * Key recovery mode: --recover-key <number> <key.txt> [reference.txt]
+     */
+    private void handleRecoverKey(String[] args) {
+        if (args.length < 3) {
+            printError("--recover-key requires a file number and an output key file (e.g., 01 key.txt)");
+            return;
+        }
+        if (args.length > 4) {
+            printError("Too many arguments");
+            return;
+        }
+        if (!isValidFileNumber(args[1])) {
+            printError("Invalid file number. Must be at least two digits (e.g., 01 or 120).");
+            return;
+        }
+
+        if (control == null) {
+            printError("Control is not configured");
+            return;
+        }
+
+        try {
+            KeyRecovery.Result result = control.recoverKey(Integer.parseInt(args[1]), args[2],
+                    args.length == 4 ? args[3] : null);
+            out.println(String.format("%s -> %s (confidence %.2f: %d of %d restarts agree)", args[1], args[2],
+                    result.getConfidence(), result.getAgreeingRestarts(), result.getRestarts()));
+        } catch (Exception e) {
+            err.println(e.toString());
+            printUsage();
+        }
+    }
+
+    /**
+     * Encipher mode: --encipher <plain file> <name.txt> [key]
+     * writes the enciphered text to data/<name.txt>.
+     */
+    private void handleEncipher(String[] args) {
+        if (args.length < 3) {
+            printError("--encipher requires a plain text file and a new data file name (e.g., notes.txt)");
+            return;
+        }
+        if (args.length > 4) {
+            printError("Too many arguments");
+            return;
+        }
+        String keyPath = args.length == 4 ? args[3] : "ciphers/key.txt";
+        if (keyPath.trim().isEmpty()) {
+            printError("Key file cannot be empty");
+            return;
+        }
+
+        if (control == null) {
+            printError("Control is not configured");
+            return;
+        }
+
+        try {
+            control.encipherFile(args[1], args[2], keyPath);
+            out.println(args[1] + " -> data/" + args[2]);
+        } catch (Exception e) {
+            err.println(e.toString());
+            printUsage();
+        }
+    }
+
+    private static List<Integer> allFileNumbers(int count) {
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            indices.add(i);
+        }
+        return indices;
+    }
+
+    /**
+     * Parses a list such as "01,03,05-09" into file numbers.
+     * Returns null if any part is not a valid file number or range.
+     */
+    static List<Integer> parseFileNumbers(String spec) {
+        if (spec == null || spec.isEmpty()) {
+            return null;
+        }
+        List<Integer> indices = new ArrayList<>();
+        for (String part : spec.split(",", -1)) {
+            String[] bounds = part.split("-", -1);
+            if (bounds.length > 2 || !isValidFileNumber(bounds[0])
+                    || !isValidFileNumber(bounds[bounds.length - 1])) {
+                return null;
+            }
+            int from = Integer.parseInt(bounds[0]);
+            int to = Integer.parseInt(bounds[bounds.length - 1]);
+            if (from > to) {
+                return null;
+            }
+            for (int i = from; i <= to; i++) {
+                indices.add(i);
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * Parses a line range such as "5000-5100" (or a single line such as "42").
+     * Returns {first, last}, or null if the range is invalid.
+     */
+    static long[] parseLineRange(String spec) {
+        if (spec == null || !spec.matches("\\d{1,18}(-\\d{1,18})?")) {
+            return null;
+        }
+        String[] bounds = spec.split("-");
+        long first = Long.parseLong(bounds[0]);
+        long last = Long.parseLong(bounds[bounds.length - 1]);
+        if (first < 1 || last < first) {
+            return null;
+        }
+        return new long[] {first, last};
+    }
+
+    /**
+     * File numbers have at least two digits (01, 02, ..., 99, 100, ...), as listed.
+     */
     public static boolean isValidFileNumber(String s) {
-        return s != null && s.matches("\\d{2}");
+        return s != null && s.matches("\\d{2,9}");
     }
 
     private void printError(String message) {
@@ -112,8 +699,19 @@ public class Userinterface {
         out.println("Usage: java TopSecret [number] [optional_key_path]");
         out.println("Examples:");
         out.println("java TopSecret           # list files");
+        out.println("java TopSecret --page 2 --limit 100 --prefix report # list one page of matching files");
         out.println("java TopSecret 01        # display file 01 using default key");
         out.println("java TopSecret 01 key.txt # display file 01 using provided key");
+        out.println("java TopSecret --all key.txt          # display every file");
+        out.println("java TopSecret --files 01,03-05 --out # write files 01, 03, 04, 05 to .out files");
+        out.println("java TopSecret 01 key.txt --lines 5000-5100 # display only lines 5000 to 5100");
+        out.println("java TopSecret 01 key.txt --output plain.txt # write file 01 to plain.txt (atomically)");
+        out.println("java TopSecret --search \"top secret\" key.txt # find lines without deciphering whole files");
+        out.println("java TopSecret --compile-key key.txt key.tkey # compile a key for faster loading");
+        out.println("java TopSecret --recover-key 01 found.txt # guess a lost key from file 01's text");
+        out.println("java TopSecret --encipher notes.txt file09.txt # encipher notes.txt into data/");
+        out.println("java TopSecret 01 --stats             # print pipeline timings when done");
+        out.println("java TopSecret --serve [--port N]     # keep a warm daemon; later runs forward to it");
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,177 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Allocation budgets for the decode and read paths, measured with the per-thread
+ * allocation counter of the HotSpot ThreadMXBean.
+ *
+ * Every operation runs at several input sizes. The budget is on the growth between
+ * sizes (bytes allocated per extra input char), so fixed costs such as buffers and
+ * class loading don't matter, but any new per-char or per-line allocation fails.
+ */
+public class AllocationTest {
+
+    private static final int[] SIZES = {1 << 16, 1 << 18, 1 << 20};
+    private static final int RUNS = 5;
+
+    // Budget for paths that should not allocate per char at all (tolerates stray JIT or GC noise)
+    private static final double NONE = 0.05;
+
+    private static final Path DATA_DIR = Paths.get("data");
+    private static final String FILE = "alloc_test.txt";
+
+    private static com.sun.management.ThreadMXBean threads;
+
+    private interface Operation {
+        void run(int size) throws IOException;
+    }
+
+    @BeforeAll
+    static void enableAllocationCounting() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @AfterEach
+    void removeDataFile() throws IOException {
+        Files.deleteIfExists(DATA_DIR.resolve(FILE));
+    }
+
+    @Test
+    void cipherKeyDecode_allocatesNothingPerChar() throws IOException {
+        CipherKey dense = new CipherKey(shiftKey());
+        CipherKey sparse = new CipherKey(new int[] {0x3b1, 0x3b2, 'b'}, new int[] {'a', 'b', 0x3b3});
+        char[] chars = text(SIZES[SIZES.length - 1]).toCharArray();
+        byte[] bytes = new String(chars).getBytes(StandardCharsets.US_ASCII);
+
+        assertBudget("CipherKey.decode(char[]) dense", NONE, size -> dense.decode(chars, chars, 0, size));
+        assertBudget("CipherKey.decode(char[]) page table", NONE, size -> sparse.decode(chars, chars, 0, size));
+        // The SIMD kernel only stops boxing vectors once C2 has compiled it, so the
+        // budget is checked on the scalar table, which must never allocate
+        assertBudget("CipherKey.decodeScalar(byte[])", NONE, size -> dense.decodeScalar(bytes, bytes, 0, size));
+    }
+
+    @Test
+    void cipherDecipher_copiesInputOnceAndOutputOnce() throws IOException {
+        Cipher cipher = new Cipher();
+        CipherKey key = new CipherKey(shiftKey());
+        String[] inputs = texts();
+
+        // toCharArray (2 bytes/char) + the Latin-1 result String (1 byte/char)
+        assertBudget("Cipher.decipher", 3.25, size -> cipher.decipher(inputs[indexOf(size)], key));
+    }
+
+    @Test
+    void fileHandlerReadFile_allocatesNoStringPerLine() throws IOException {
+        FileHandler handler = new FileHandler();
+
+        // StringBuilder sized from the file (1 byte/char) + the result String (1 byte/char)
+        assertBudget("FileHandler.readFile", 2.25, size -> {
+            writeDataFile(size);
+            handler.readFile(FILE);
+        }, size -> handler.readFile(FILE));
+    }
+
+    @Test
+    void programControlGetFileContent_endToEnd() throws IOException {
+        Path key = Files.createTempFile("key", ".txt");
+        Files.writeString(key, "abcdefghijklmnopqrstuvwxyz\nbcdefghijklmnopqrstuvwxyza\n", StandardCharsets.UTF_8);
+        ProgramControl pc = new ProgramControl(new Cipher(), new FileHandler(), key.toString());
+
+        // readFile (2 bytes/char) + decipher (3 bytes/char)
+        assertBudget("ProgramControl.getFileContent", 5.5, size -> {
+            writeDataFile(size);
+            pc.getFileContent(pc.getFileList().indexOf(FILE) + 1, key.toString());
+        }, size -> pc.getFileContent(pc.getFileList().indexOf(FILE) + 1, key.toString()));
+    }
+
+    private static void assertBudget(String name, double bytesPerChar, Operation op) throws IOException {
+        assertBudget(name, bytesPerChar, size -> { }, op);
+    }
+
+    /**
+     * Runs op at every size (after setup for that size) and fails if the allocation
+     * between two sizes grows by more than bytesPerChar per additional char.
+     */
+    private static void assertBudget(String name, double bytesPerChar, Operation setup, Operation op)
+            throws IOException {
+        long[] allocated = new long[SIZES.length];
+        for (int s = 0; s < SIZES.length; s++) {
+            setup.run(SIZES[s]);
+            allocated[s] = Long.MAX_VALUE;
+            // Warm-up runs count too; the minimum is the steady state
+            for (int r = 0; r < RUNS; r++) {
+                long before = threads.getCurrentThreadAllocatedBytes();
+                op.run(SIZES[s]);
+                allocated[s] = Math.min(allocated[s], threads.getCurrentThreadAllocatedBytes() - before);
+            }
+        }
+
+        for (int s = 1; s < SIZES.length; s++) {
+            double perChar = (double) (allocated[s] - allocated[s - 1]) / (SIZES[s] - SIZES[s - 1]);
+            assertTrue(perChar <= bytesPerChar, String.format(
+                    "%s allocates %.2f bytes per char between %d and %d chars (budget %.2f)",
+                    name, perChar, SIZES[s - 1], SIZES[s], bytesPerChar));
+        }
+    }
+
+    private static void writeDataFile(int size) throws IOException {
+        if (!Files.exists(DATA_DIR)) {
+            Files.createDirectory(DATA_DIR);
+        }
+        Files.writeString(DATA_DIR.resolve(FILE), text(size), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * ASCII text of exactly size chars in short lines, so per-line costs would show.
+     */
+    private static String text(int size) {
+        StringBuilder text = new StringBuilder(size);
+        String line = "the quick brown fox jumps over the lazy dog\n";
+        while (text.length() < size) {
+            text.append(line, 0, Math.min(line.length(), size - text.length()));
+        }
+        text.setCharAt(size - 1, '\n');
+        return text.toString();
+    }
+
+    private static String[] texts() {
+        String[] texts = new String[SIZES.length];
+        for (int s = 0; s < SIZES.length; s++) {
+            texts[s] = text(SIZES[s]);
+        }
+        return texts;
+    }
+
+    private static int indexOf(int size) {
+        for (int s = 0; s < SIZES.length; s++) {
+            if (SIZES[s] == size) {
+                return s;
+            }
+        }
+        throw new IllegalArgumentException("Unknown size " + size);
+    }
+
+    private static Map<Character, Character> shiftKey() {
+        Map<Character, Character> map = new HashMap<>();
+        for (char c = 'a'; c <= 'z'; c++) {
+            map.put(c == 'z' ? 'a' : (char) (c + 1), c);
+        }
+        return map;
+    }
+}
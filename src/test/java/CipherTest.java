@@ -1,9 +1,22 @@
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -52,4 +65,358 @@ public class CipherTest {
         assertThrows(IllegalArgumentException.class,
                 () -> cipher.validateKeyStrings("", ""));
     }
+
+    @Test
+    void validateKeyStrings_duplicates_throw() {
+        Cipher cipher = new Cipher();
+        assertThrows(IllegalArgumentException.class,
+                () -> cipher.validateKeyStrings("aba", "xyz"));
+        assertThrows(IllegalArgumentException.class,
+                () -> cipher.validateKeyStrings("abc", "x\ud83d\ude00\ud83d\ude00"));
+        assertThrows(IllegalArgumentException.class,
+                () -> cipher.validateKeyStrings("ab", "x\ud83d"));
+        cipher.validateKeyStrings("abc", "x\ud83d\ude00\ud83d\ude01");
+    }
+
+    @Test
+    void decipher_emojiKey_decodesCodePoints() throws IOException {
+        Path tmp = Files.createTempFile("key", ".txt");
+        Files.writeString(tmp, "abc\n\ud83d\ude00\ud83d\ude01\ud83d\ude02\n", StandardCharsets.UTF_8);
+        String ciphered = "\ud83d\ude02\ud83d\ude00\ud83d\ude01 x\n";
+
+        Cipher cipher = new Cipher();
+        CipherKey key = cipher.loadKey(tmp.toString());
+
+        assertFalse(key.isWidthPreserving());
+        assertEquals('a', key.decodeCodePoint(0x1f600));
+        assertEquals("cab x\n", cipher.decipher(ciphered, key));
+        assertEquals(ciphered, cipher.encipher("cab x\n", key));
+        assertThrows(IllegalStateException.class, key::getCipherToActual);
+    }
+
+    @Test
+    void decipher_streamingEmojiKey_keepsPairsAcrossChunks() throws IOException {
+        Path tmp = Files.createTempFile("key", ".txt");
+        Files.writeString(tmp, "ab\n\ud83d\ude00b\n", StandardCharsets.UTF_8);
+        // odd prefix so pairs straddle every chunk boundary
+        String input = "x" + "\ud83d\ude00b".repeat(Cipher.CHUNK_SIZE);
+
+        Cipher cipher = new Cipher();
+        CipherKey key = cipher.loadKey(tmp.toString());
+        StringWriter out = new StringWriter();
+        cipher.decipher(new StringReader(input), out, key);
+
+        assertEquals("x" + "ab".repeat(Cipher.CHUNK_SIZE), out.toString());
+        assertEquals(cipher.decipher(input, key), out.toString());
+    }
+
+    @Test
+    void cipherKey_supplementaryToSupplementary_decodesInPlace() {
+        CipherKey key = new CipherKey(new int[] {0x1f600, 0x1f601, 0x10400}, new int[] {0x1f601, 0x1f600, 0x10428});
+        char[] chars = "\ud83d\ude00-\ud801\udc00-\ud83d\ude01".toCharArray();
+
+        key.decode(chars, chars, 0, chars.length);
+
+        assertTrue(key.isWidthPreserving());
+        assertFalse(key.isDense());
+        assertEquals("\ud83d\ude01-\ud801\udc28-\ud83d\ude00", new String(chars));
+        assertEquals(0x1f602, key.decodeCodePoint(0x1f602));
+        assertEquals(0x1f600, key.encodeCodePoint(0x1f601));
+    }
+
+    @Test
+    void cipherKey_wideAlphabet_usesSparseTable() {
+        CipherKey key = new CipherKey(Map.of('\u03b1', 'a', '\u03b2', 'b', 'x', 'y'));
+
+        assertFalse(key.isDense());
+        assertEquals('a', key.decode('\u03b1'));
+        assertEquals('b', key.decode('\u03b2'));
+        assertEquals('y', key.decode('x'));
+        assertEquals('?', key.decode('?'));
+    }
+
+    @Test
+    void cipherKey_bulkDecode_matchesPerCharDecode() {
+        CipherKey key = new CipherKey(Map.of('b', 'a', 'c', 'b', 'a', 'c'));
+        char[] src = "xxabc\u00ff\u4e2dxx".toCharArray();
+        char[] dst = new char[src.length];
+
+        key.decode(src, dst, 2, 5);
+
+        assertTrue(key.isDense());
+        assertEquals("cab\u00ff\u4e2d", new String(dst, 2, 5));
+        assertEquals(0, dst[0]);
+        assertEquals(0, dst[7]);
+    }
+
+    @Test
+    void loadKey_sameUnchangedFile_servedFromCache() throws IOException {
+        Path tmp = Files.createTempFile("key", ".txt");
+        Files.writeString(tmp, "abcde\nbcdea\n", StandardCharsets.UTF_8);
+
+        Cipher cipher = new Cipher();
+        CipherKey first = cipher.loadKey(tmp.toString());
+        CipherKey second = cipher.loadKey(tmp.toString());
+
+        assertSame(first, second);
+        assertEquals(1, cipher.getKeyCacheMisses());
+        assertEquals(1, cipher.getKeyCacheHits());
+        assertEquals(0, cipher.getKeyCacheReloads());
+    }
+
+    @Test
+    void loadKey_modifiedFile_isReloaded() throws IOException {
+        Path tmp = Files.createTempFile("key", ".txt");
+        Files.writeString(tmp, "abcde\nbcdea\n", StandardCharsets.UTF_8);
+
+        Cipher cipher = new Cipher();
+        cipher.loadKey(tmp.toString());
+
+        Files.writeString(tmp, "abcde\ncdeab\n", StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(tmp, FileTime.fromMillis(
+                Files.getLastModifiedTime(tmp).toMillis() + 5000));
+        CipherKey reloaded = cipher.loadKey(tmp.toString());
+
+        assertEquals('a', reloaded.decode('c'));
+        assertEquals(1, cipher.getKeyCacheReloads());
+    }
+
+    @Test
+    void loadKey_cacheFull_evictsLeastRecentlyUsed() throws IOException {
+        Path a = Files.createTempFile("keyA", ".txt");
+        Path b = Files.createTempFile("keyB", ".txt");
+        Files.writeString(a, "ab\nba\n", StandardCharsets.UTF_8);
+        Files.writeString(b, "ab\nba\n", StandardCharsets.UTF_8);
+
+        Cipher cipher = new Cipher(1);
+        cipher.loadKey(a.toString());
+        cipher.loadKey(b.toString());
+        cipher.loadKey(a.toString());
+
+        assertEquals(3, cipher.getKeyCacheMisses());
+        assertEquals(0, cipher.getKeyCacheHits());
+    }
+
+    @Test
+    void decipher_streaming_matchesStringDecipher() throws IOException {
+        Path tmp = Files.createTempFile("key", ".txt");
+        Files.writeString(tmp, "abcde\nbcdea\n", StandardCharsets.UTF_8);
+        String input = "bcdea xyz\n".repeat(3000);
+
+        Cipher cipher = new Cipher();
+        StringWriter out = new StringWriter();
+        cipher.decipher(new StringReader(input), out, tmp.toString());
+
+        assertEquals(cipher.decipher(input, tmp.toString()), out.toString());
+    }
+
+    @Test
+    void decipher_mappedBytes_matchesStringDecipher() throws IOException {
+        Path tmp = Files.createTempFile("key", ".txt");
+        Files.writeString(tmp, "abcde\nbcdea\n", StandardCharsets.UTF_8);
+        String input = "bcdea \u00e9\r\nxyz\rdd";
+
+        Cipher cipher = new Cipher();
+        CipherKey key = cipher.loadKey(tmp.toString());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        cipher.decipher(List.of(
+                ByteBuffer.wrap(bytes, 0, 9), ByteBuffer.wrap(bytes, 9, bytes.length - 9)),
+                out, key);
+
+        assertTrue(key.isAscii());
+        assertEquals(cipher.decipher("bcdea \u00e9\nxyz\ndd\n", tmp.toString()),
+                out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void decipher_parallel_matchesSequential() throws IOException {
+        Path tmp = Files.createTempFile("key", ".txt");
+        Files.writeString(tmp, "abcde\nbcdea\n", StandardCharsets.UTF_8);
+        String input = "bcdea \ud83d\ude00 xyz\n".repeat(500);
+
+        Cipher sequential = new Cipher();
+        Cipher parallel = new Cipher();
+        parallel.setParallelThreshold(7);
+
+        assertEquals(sequential.decipher(input, tmp.toString()), parallel.decipher(input, tmp.toString()));
+    }
+
+    @Test
+    void splitPoint_neverSplitsSurrogatePair() {
+        char[] chars = "a\ud83d\ude00b".toCharArray();
+
+        assertEquals(3, Cipher.splitPoint(chars, 2));
+        assertEquals(1, Cipher.splitPoint(chars, 1));
+        assertEquals(3, Cipher.splitPoint(chars, 3));
+    }
+
+    @Test
+    void cipherKey_byteDecode_matchesScalarTable() {
+        Map<Character, Character> map = new HashMap<>();
+        for (char c = '!'; c <= '~'; c++) {
+            map.put(c, (char) (c == '~' ? '!' : c + 1));
+        }
+        CipherKey key = new CipherKey(map);
+        byte[] src = new byte[1000];
+        new Random(7).nextBytes(src);
+        byte[] expected = new byte[src.length];
+        byte[] actual = new byte[src.length];
+
+        key.decodeScalar(src, expected, 3, 990);
+        key.decode(src, actual, 3, 990);
+
+        assertTrue(key.isAscii());
+        // Tests run with jdk.incubator.vector, so a broken kernel lookup would silently fall back
+        assertTrue(key.isVectorized(), "Expected the Vector API kernel to be used");
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    void encipher_roundTripsThroughDecipher() throws IOException {
+        Path tmp = Files.createTempFile("key", ".txt");
+        Files.writeString(tmp, "abcde\nbcdea\n", StandardCharsets.UTF_8);
+        String input = "abcde xyz \u00e9\n".repeat(200);
+
+        Cipher cipher = new Cipher();
+        String ciphered = cipher.encipher(input, tmp.toString());
+
+        assertTrue(ciphered.startsWith("bcdea xyz"));
+        assertEquals(input, cipher.decipher(ciphered, tmp.toString()));
+
+        cipher.setParallelThreshold(7);
+        assertEquals(ciphered, cipher.encipher(input, tmp.toString()));
+    }
+
+    @Test
+    void encipher_streamingAndBytes_matchStringEncipher() throws IOException {
+        Path tmp = Files.createTempFile("key", ".txt");
+        Files.writeString(tmp, "abcde\nbcdea\n", StandardCharsets.UTF_8);
+        String input = "abcde \u00e9\r\nxyz".repeat(3000);
+
+        Cipher cipher = new Cipher();
+        CipherKey key = cipher.loadKey(tmp.toString());
+        StringWriter chars = new StringWriter();
+        cipher.encipher(new StringReader(input), chars, key);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        cipher.encipher(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), bytes, key);
+
+        String expected = cipher.encipher(input, key);
+        assertEquals(expected, chars.toString());
+        assertEquals(expected, bytes.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void compileKey_compiledKeyLoadsWithSameMapping() throws IOException {
+        Path text = Files.createTempFile("key", ".txt");
+        Path compiled = Files.createTempFile("key", ".tkey");
+        Files.writeString(text, "abc\u03b1\u03b2\nbca\u03b2\u03b1\n", StandardCharsets.UTF_8);
+
+        Cipher cipher = new Cipher();
+        compile(cipher, text, compiled);
+        CipherKey fromText = cipher.loadKey(text.toString());
+        CipherKey fromCompiled = cipher.loadKey(compiled.toString());
+
+        assertTrue(CompiledKey.isCompiled(compiled));
+        assertFalse(CompiledKey.isCompiled(text));
+        assertEquals(fromText.getCipherToActual(), fromCompiled.getCipherToActual());
+        assertEquals("abc\u03b1\u03b2 z", cipher.decipher("bca\u03b2\u03b1 z", fromCompiled));
+        assertEquals("bca\u03b2\u03b1 z", cipher.encipher("abc\u03b1\u03b2 z", fromCompiled));
+    }
+
+    @Test
+    void compileKey_emojiKey_roundTrips() throws IOException {
+        Path text = Files.createTempFile("key", ".txt");
+        Path compiled = Files.createTempFile("key", ".tkey");
+        Files.writeString(text, "ab\u03b1\n\ud83d\ude00\u03b1b\n", StandardCharsets.UTF_8);
+
+        Cipher cipher = new Cipher();
+        compile(cipher, text, compiled);
+        CipherKey key = cipher.loadKey(compiled.toString());
+
+        assertEquals("ab\u03b1!", cipher.decipher("\ud83d\ude00\u03b1b!", key));
+        assertEquals("\ud83d\ude00\u03b1b!", cipher.encipher("ab\u03b1!", key));
+    }
+
+    @Test
+    void loadKey_compiledKeyOfAnotherVersion_throws() throws IOException {
+        Path text = Files.createTempFile("key", ".txt");
+        Path compiled = Files.createTempFile("key", ".tkey");
+        Files.writeString(text, "abcde\nbcdea\n", StandardCharsets.UTF_8);
+        Cipher cipher = new Cipher(0);
+        compile(cipher, text, compiled);
+
+        byte[] bytes = Files.readAllBytes(compiled);
+        ByteBuffer.wrap(bytes).putInt(4, CompiledKey.VERSION - 1);
+        Files.write(compiled, bytes);
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> cipher.loadKey(compiled.toString()));
+        assertTrue(e.getMessage().contains("unsupported version"));
+    }
+
+    @Test
+    void loadKey_corruptCompiledKey_throws() throws IOException {
+        Path text = Files.createTempFile("key", ".txt");
+        Path compiled = Files.createTempFile("key", ".tkey");
+        Files.writeString(text, "abcde\nbcdea\n", StandardCharsets.UTF_8);
+        Cipher cipher = new Cipher(0);
+        compile(cipher, text, compiled);
+
+        byte[] bytes = Files.readAllBytes(compiled);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(compiled, bytes);
+
+        assertThrows(IllegalArgumentException.class, () -> cipher.loadKey(compiled.toString()));
+    }
+
+    @Test
+    void decipher_mappedBytesToChannel_matchesOutputStreamPath() throws IOException {
+        Path tmp = Files.createTempFile("key", ".txt");
+        Files.writeString(tmp, "abcde\nbcdea\n", StandardCharsets.UTF_8);
+        byte[] bytes = ("bcdea \u00e9\r\nxyz\r".repeat(100_000) + "dd").getBytes(StandardCharsets.UTF_8);
+        // Split right after a '\r' (index 8) and inside a run, so both segment edges are crossed
+        List<ByteBuffer> segments = List.of(
+                ByteBuffer.wrap(bytes, 0, 9).slice(),
+                ByteBuffer.wrap(bytes, 9, 2).slice(),
+                ByteBuffer.wrap(bytes, 11, bytes.length - 11).slice());
+
+        Cipher cipher = new Cipher();
+        CipherKey key = cipher.loadKey(tmp.toString());
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        cipher.decipher(segments, expected, key);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        cipher.decipher(segments, Channels.newChannel(actual), key);
+
+        assertTrue(bytes.length > Cipher.OUTPUT_BUFFER_SIZE);
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    void cipherKey_decodeUntilCR_matchesScalarAndStopsAtCR() throws IOException {
+        Path tmp = Files.createTempFile("key", ".txt");
+        Files.writeString(tmp, "abcde\nbcdea\n", StandardCharsets.UTF_8);
+        CipherKey key = new Cipher().loadKey(tmp.toString());
+
+        byte[] text = ("bcdea xyz \u00e9".repeat(40) + "\rtail").getBytes(StandardCharsets.UTF_8);
+        ByteBuffer src = ByteBuffer.allocateDirect(text.length).put(text);
+        int cr = text.length - 5;
+        for (int from = 0; from < 70; from += 7) {
+            ByteBuffer vector = ByteBuffer.allocateDirect(text.length);
+            ByteBuffer scalar = ByteBuffer.allocateDirect(text.length);
+            assertEquals(cr, key.decodeUntilCR(src, from, text.length, vector, 3));
+            assertEquals(cr, key.decodeUntilCRScalar(src, from, text.length, scalar, 3));
+            assertEquals(scalar, vector);
+            for (int i = from; i < cr; i++) {
+                assertEquals(key.decodeByte(text[i]), vector.get(3 + i - from));
+            }
+        }
+        assertEquals(cr - 1, key.decodeUntilCR(src, 0, cr - 1, ByteBuffer.allocateDirect(text.length), 0));
+    }
+
+    private static void compile(Cipher cipher, Path text, Path compiled) throws IOException {
+        try (FileChannel out = FileChannel.open(compiled, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            cipher.compileKey(text.toString(), out);
+        }
+    }
 }
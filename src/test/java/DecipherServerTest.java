@@ -0,0 +1,265 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class DecipherServerTest {
+
+    private Path socketFile;
+    private DecipherServer server;
+    private Thread serverThread;
+    private ProgramControl control;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        socketFile = Files.createTempDirectory("daemon").resolve("test.sock");
+        control = mock(ProgramControl.class);
+        doReturn(new ArrayList<>(List.of("filea.txt", "fileb.txt"))).when(control).getFileList();
+
+        server = DecipherServer.unixSocket(control, socketFile);
+        serverThread = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                // closed
+            }
+        });
+        serverThread.start();
+    }
+
+    @AfterEach
+    void stopServer() throws Exception {
+        server.close();
+        serverThread.join(5000);
+    }
+
+    private String[] forward(String... args) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        boolean sent = DecipherClient.forward(args, new PrintStream(out), new PrintStream(err),
+                UnixDomainSocketAddress.of(socketFile));
+        assertTrue(sent, "Expected the request to reach the daemon.");
+        return new String[]{out.toString(StandardCharsets.UTF_8), err.toString(StandardCharsets.UTF_8)};
+    }
+
+    @Test
+    void listRequest_returnsListingFromResidentControl() {
+        String[] result = forward();
+
+        assertTrue(result[0].contains("Listing available files:"));
+        assertTrue(result[0].contains("01 filea.txt"));
+        assertTrue(result[0].contains("02 fileb.txt"));
+    }
+
+    @Test
+    void errors_areSentOnStderr() {
+        String[] result = forward("abc");
+
+        assertTrue(result[1].contains("Error: Invalid file number"));
+        assertTrue(result[0].contains("Usage:"));
+    }
+
+    @Test
+    void concurrentClients_areAllServed() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String[]>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                results.add(pool.submit(() -> forward()));
+            }
+            for (Future<String[]> result : results) {
+                assertTrue(result.get()[0].contains("02 fileb.txt"));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        verify(control, times(32)).getFileList();
+    }
+
+    @Test
+    void idleClients_areDisconnectedAndDoNotBlockOthers() throws Exception {
+        server.setRequestTimeout(200);
+        List<SocketChannel> idle = new ArrayList<>();
+        try {
+            // More silent connections than the daemon has handler threads
+            for (int i = 0; i < 2 * Runtime.getRuntime().availableProcessors() + 2; i++) {
+                SocketChannel channel =
+                        SocketChannel.open(StandardProtocolFamily.UNIX);
+                channel.connect(UnixDomainSocketAddress.of(socketFile));
+                idle.add(channel);
+            }
+
+            assertTrue(forward()[0].contains("01 filea.txt"));
+            assertEquals(-1, idle.get(0).read(ByteBuffer.allocate(16)),
+                    "Expected the daemon to close an idle connection.");
+        } finally {
+            for (SocketChannel channel : idle) {
+                channel.close();
+            }
+        }
+    }
+
+    @Test
+    void clientsBeyondTheWaitingLimit_areToldTheDaemonIsBusy() throws Exception {
+        Path busySocket = socketFile.resolveSibling("busy.sock");
+        ExecutorService clients = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1));
+        DecipherServer busy = DecipherServer.unixSocket(control, busySocket, clients);
+        Thread thread = new Thread(() -> {
+            try {
+                busy.serve();
+            } catch (IOException e) {
+                // closed
+            }
+        });
+        thread.start();
+        List<SocketChannel> silent = new ArrayList<>();
+        try {
+            // One holds the only handler thread, the other the only waiting slot
+            for (int i = 0; i < 2; i++) {
+                SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+                channel.connect(UnixDomainSocketAddress.of(busySocket));
+                silent.add(channel);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            assertFalse(DecipherClient.forward(new String[0], new PrintStream(out), System.err,
+                    UnixDomainSocketAddress.of(busySocket)), "Expected a busy daemon to send the client back.");
+            assertEquals("", out.toString(StandardCharsets.UTF_8));
+        } finally {
+            for (SocketChannel channel : silent) {
+                channel.close();
+            }
+            busy.close();
+            thread.join(5000);
+        }
+        verify(control, never()).getFileList();
+    }
+
+    @Test
+    void readRequestLine_rejectsOverlongLines() {
+        byte[] longLine = new byte[DecipherServer.MAX_REQUEST_BYTES + 1];
+        Arrays.fill(longLine, (byte) 'a');
+
+        assertThrows(IOException.class, () -> DecipherServer.readRequestLine(new ByteArrayInputStream(longLine)));
+    }
+
+    @Test
+    void socketFile_isOwnerOnly() throws IOException {
+        Assumptions.assumeTrue(
+                socketFile.getFileSystem().supportedFileAttributeViews().contains("posix"));
+
+        assertEquals(PosixFilePermissions.fromString("rw-------"),
+                Files.getPosixFilePermissions(socketFile));
+    }
+
+    @Test
+    void socketInSharedDirectory_isRejected() throws IOException {
+        Path shared = Files.createTempDirectory("shared");
+        Assumptions.assumeTrue(
+                shared.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        Files.setPosixFilePermissions(shared, PosixFilePermissions.fromString("rwxrwxrwx"));
+
+        assertThrows(IOException.class, () -> DecipherServer.unixSocket(control, shared.resolve("test.sock")));
+    }
+
+    @Test
+    void pathCommands_areRefusedByTheDaemon() throws IOException {
+        String[] result = forward("--encipher", "/etc/passwd", "stolen.txt");
+
+        assertTrue(result[1].contains("Error: --encipher is not available through the daemon"));
+        verify(control, never()).encipherFile(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    void copyFrames_rejectsMalformedFrameLengths() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DecipherClient.copyFrames(new ByteArrayInputStream("O 2\nhiEND\n".getBytes(StandardCharsets.US_ASCII)),
+                new PrintStream(out), System.err);
+        assertEquals("hi", out.toString(StandardCharsets.US_ASCII));
+
+        for (String header : new String[] {"O abc\n", "E 99999999999\n", "O -1\n", "O \n"}) {
+            InputStream in = new ByteArrayInputStream(header.getBytes(StandardCharsets.US_ASCII));
+            assertThrows(IOException.class, () -> DecipherClient.copyFrames(in, System.out, System.err), header);
+        }
+    }
+
+    @Test
+    void tcpClients_mustSendTheToken() throws Exception {
+        Path tokenFile = socketFile.resolveSibling("token");
+        DecipherServer tcp = DecipherServer.tcp(control, 0, tokenFile);
+        Thread thread = new Thread(() -> {
+            try {
+                tcp.serve();
+            } catch (IOException e) {
+                // closed
+            }
+        });
+        thread.start();
+        try {
+            String token = Files.readString(tokenFile).trim();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+            assertTrue(DecipherClient.forward(new String[0], new PrintStream(out), new PrintStream(err),
+                    tcp.getAddress(), "wrong"));
+            assertEquals("", out.toString(StandardCharsets.UTF_8));
+
+            assertTrue(DecipherClient.forward(new String[0], new PrintStream(out), new PrintStream(err),
+                    tcp.getAddress(), token));
+            assertTrue(out.toString(StandardCharsets.UTF_8).contains("01 filea.txt"));
+        } finally {
+            tcp.close();
+            thread.join(5000);
+        }
+        assertFalse(Files.exists(tokenFile));
+    }
+
+    @Test
+    void parsePort_rejectsNonNumbersInsteadOfThrowing() {
+        assertEquals(7777, DecipherClient.parsePort(" 7777 "));
+        assertNull(DecipherClient.parsePort(null));
+        assertNull(DecipherClient.parsePort("abc"));
+        assertNull(DecipherClient.parsePort("0"));
+        assertNull(DecipherClient.parsePort("70000"));
+        assertNull(DecipherClient.parsePort("99999999999"));
+    }
+
+    @Test
+    void noDaemon_forwardReturnsFalse() throws IOException {
+        Path missing = Files.createTempDirectory("daemon").resolve("none.sock");
+
+        assertFalse(DecipherClient.forward(new String[0], System.out, System.err,
+                UnixDomainSocketAddress.of(missing)));
+    }
+
+    @Test
+    void secondDaemonOnSameSocket_isRejected() {
+        assertThrows(IOException.class, () -> DecipherServer.unixSocket(control, socketFile));
+    }
+}
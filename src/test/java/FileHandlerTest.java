@@ -1,10 +1,24 @@
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -118,4 +132,285 @@ public class FileHandlerTest {
                 () -> handler.readFile("folder\\file.txt"),
                 "Backslash-based paths should be blocked.");
     }
+
+    // openFile() tests
+
+    @Test
+    void openFileStreamsSameTextAsReadFile() throws IOException {
+        Files.writeString(DATA_DIR.resolve("charlie_crlf.txt"), "one\r\ntwo\rthree");
+        try {
+            FileHandler handler = new FileHandler();
+            StringBuilder streamed = new StringBuilder();
+            try (Reader reader = handler.openFile("charlie_crlf.txt")) {
+                char[] buf = new char[2];
+                int n;
+                while ((n = reader.read(buf, 0, buf.length)) != -1) {
+                    streamed.append(buf, 0, n);
+                }
+            }
+
+            assertEquals(handler.readFile("charlie_crlf.txt"), streamed.toString(),
+                    "Streamed contents should match readFile exactly.");
+        } finally {
+            Files.deleteIfExists(DATA_DIR.resolve("charlie_crlf.txt"));
+        }
+    }
+
+    // mapFile() tests
+
+    @Test
+    void mapFileReturnsRawBytes() throws IOException {
+        FileHandler handler = new FileHandler();
+        List<MappedByteBuffer> segments = handler.mapFile("bravo_notes.txt");
+
+        assertEquals(1, segments.size());
+        byte[] bytes = new byte[segments.get(0).remaining()];
+        segments.get(0).get(bytes);
+        assertEquals("bravo\nnotes\n", new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void shouldMapUsesSizeThreshold() throws IOException {
+        FileHandler handler = new FileHandler();
+        assertFalse(handler.shouldMap("bravo_notes.txt"),
+                "Small files should keep the readFile path by default.");
+
+        handler.setMapThreshold(4);
+        assertTrue(handler.shouldMap("bravo_notes.txt"),
+                "Files over the threshold should be mapped.");
+    }
+
+    @Test
+    void listFilesReflectsAddedAndRemovedFiles() throws IOException {
+        try (FileHandler handler = new FileHandler()) {
+            assertFalse(handler.listFiles().contains("charlie_added.txt"));
+
+            Files.writeString(DATA_DIR.resolve("charlie_added.txt"), "charlie\n");
+            try {
+                List<String> files = handler.listFiles();
+                assertTrue(files.contains("charlie_added.txt"),
+                        "Expected a newly added file to be listed.");
+                assertTrue(files.indexOf("bravo_notes.txt") < files.indexOf("charlie_added.txt"),
+                        "Expected the listing to stay sorted.");
+            } finally {
+                Files.deleteIfExists(DATA_DIR.resolve("charlie_added.txt"));
+            }
+
+            assertFalse(handler.listFiles().contains("charlie_added.txt"),
+                    "Expected a removed file to disappear from the listing.");
+        }
+    }
+
+    @Test
+    void listFilesSkipsFoldersNamedLikeDataFiles() throws IOException {
+        Path scanned = DATA_DIR.resolve("hotel_folder.txt");
+        Path watched = DATA_DIR.resolve("india_folder.txt.gz");
+        Files.createDirectory(scanned);
+        try (FileHandler handler = new FileHandler()) {
+            assertFalse(handler.listFiles().contains("hotel_folder.txt"),
+                    "Expected a folder to be skipped by a full scan.");
+
+            Files.createDirectory(watched);
+            assertFalse(handler.listFiles().contains("india_folder.txt.gz"),
+                    "Expected a folder to be skipped when it shows up later.");
+        } finally {
+            Files.deleteIfExists(scanned);
+            Files.deleteIfExists(watched);
+        }
+    }
+
+    @Test
+    void createAtomicDataFileNeverOverwritesExistingFiles() throws IOException {
+        FileHandler handler = new FileHandler();
+
+        try {
+            try (FileHandler.AtomicOutput file = handler.createAtomicDataFile("delta_new.txt")) {
+                try (OutputStream out = file.stream()) {
+                    out.write("delta\n".getBytes());
+                }
+                file.commit();
+            }
+            assertEquals("delta\n", handler.readFile("delta_new.txt"));
+            assertThrows(FileAlreadyExistsException.class,
+                    () -> handler.createAtomicDataFile("alpha_report.txt"));
+            assertThrows(IllegalArgumentException.class, () -> handler.createAtomicDataFile("../escape.txt"));
+        } finally {
+            Files.deleteIfExists(DATA_DIR.resolve("delta_new.txt"));
+        }
+    }
+
+    @Test
+    void createAtomicDataFileLeavesNothingBehindWhenNotCommitted() throws IOException {
+        FileHandler handler = new FileHandler();
+        long before;
+        try (Stream<Path> files = Files.list(DATA_DIR)) {
+            before = files.count();
+        }
+
+        try (FileHandler.AtomicOutput file = handler.createAtomicDataFile("foxtrot_failed.txt")) {
+            file.stream().write("partial".getBytes());
+            // a failed encipher would leave here without committing
+        }
+
+        assertFalse(Files.exists(DATA_DIR.resolve("foxtrot_failed.txt")));
+        assertFalse(handler.listFiles().contains("foxtrot_failed.txt"));
+        try (Stream<Path> files = Files.list(DATA_DIR)) {
+            assertEquals(before, files.count(), "Expected the temporary file to be deleted.");
+        }
+    }
+
+    @Test
+    void createAtomicDataFileFailsIfTheFileAppearsBeforeCommit() throws IOException {
+        FileHandler handler = new FileHandler();
+        try (FileHandler.AtomicOutput file = handler.createAtomicDataFile("golf_race.txt")) {
+            Files.writeString(DATA_DIR.resolve("golf_race.txt"), "first");
+            assertThrows(FileAlreadyExistsException.class, file::commit);
+        } finally {
+            assertEquals("first", Files.readString(DATA_DIR.resolve("golf_race.txt")));
+            Files.deleteIfExists(DATA_DIR.resolve("golf_race.txt"));
+        }
+    }
+
+    @Test
+    void compressedFilesAreListedAndReadTransparently() throws IOException {
+        Path gz = DATA_DIR.resolve("echo_packed.txt.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gz))) {
+            out.write("echo\r\npacked".getBytes());
+        }
+
+        try (FileHandler handler = new FileHandler()) {
+            assertTrue(handler.listFiles().contains("echo_packed.txt.gz"),
+                    "Expected compressed files to be listed.");
+            assertEquals("echo\npacked\n", handler.readFile("echo_packed.txt.gz"));
+
+            StringBuilder streamed = new StringBuilder();
+            try (Reader reader = handler.openFile("echo_packed.txt.gz")) {
+                char[] buf = new char[3];
+                int n;
+                while ((n = reader.read(buf)) != -1) {
+                    streamed.append(buf, 0, n);
+                }
+            }
+            assertEquals("echo\npacked\n", streamed.toString());
+
+            handler.setMapThreshold(0);
+            assertFalse(handler.shouldMap("echo_packed.txt.gz"),
+                    "Compressed files should never be mapped.");
+        } finally {
+            Files.deleteIfExists(gz);
+        }
+    }
+
+    @Test
+    void openLinesMatchesReadFileAndRebuildsStaleIndex() throws IOException {
+        Path big = DATA_DIR.resolve("foxtrot_lines.txt");
+        Path sidecar = DATA_DIR.resolve(".foxtrot_lines.txt.idx");
+        StringBuilder text = new StringBuilder();
+        for (int i = 1; i <= 300; i++) {
+            text.append("line ").append(i).append(i % 3 == 0 ? "\r\n" : i % 3 == 1 ? "\n" : "\r");
+        }
+        text.append("tail");
+        Files.writeString(big, text);
+
+        try (FileHandler handler = new FileHandler()) {
+            String[] all = handler.readFile("foxtrot_lines.txt").split("\n");
+
+            assertEquals(String.join("\n", Arrays.copyOfRange(all, 63, 130)) + "\n",
+                    readAll(handler.openLines("foxtrot_lines.txt", 64, 130)));
+            assertEquals("line 300\ntail\n", readAll(handler.openLines("foxtrot_lines.txt", 300, 400)));
+            assertEquals("", readAll(handler.openLines("foxtrot_lines.txt", 302, 310)));
+            assertTrue(Files.exists(sidecar), "Expected the line index to be saved next to the file.");
+
+            Files.writeString(big, "changed\nfile\n");
+            Files.setLastModifiedTime(big, FileTime.fromMillis(0));
+            assertEquals("file\n", readAll(handler.openLines("foxtrot_lines.txt", 2, 5)));
+            assertThrows(IllegalArgumentException.class, () -> handler.openLines("foxtrot_lines.txt", 0, 5));
+        } finally {
+            Files.deleteIfExists(big);
+            Files.deleteIfExists(sidecar);
+        }
+    }
+
+    @Test
+    void lineIndexDoesNotNeedTheHandlerLock() throws Exception {
+        Path file = DATA_DIR.resolve("golf_lines.txt");
+        Path sidecar = DATA_DIR.resolve(".golf_lines.txt.idx");
+        Files.writeString(file, "one\ntwo\nthree\n");
+
+        try (FileHandler handler = new FileHandler()) {
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                synchronized (handler) {
+                    // Would time out if building the index waited for the handler's monitor
+                    String lines = executor.submit(() -> readAll(handler.openLines("golf_lines.txt", 2, 3)))
+                            .get(10, TimeUnit.SECONDS);
+                    assertEquals("two\nthree\n", lines);
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(sidecar);
+        }
+    }
+
+    private static String readAll(Reader reader) throws IOException {
+        try (reader) {
+            StringBuilder sb = new StringBuilder();
+            char[] buf = new char[7];
+            int n;
+            while ((n = reader.read(buf)) != -1) {
+                sb.append(buf, 0, n);
+            }
+            return sb.toString();
+        }
+    }
+
+    @Test
+    void atomicOutputOnlyReplacesTargetOnCommit() throws IOException {
+        Path target = DATA_DIR.resolve("golf_output.out");
+        Files.writeString(target, "old\n");
+        FileHandler handler = new FileHandler();
+
+        try {
+            try (FileHandler.AtomicOutput out = handler.createAtomicOutput(target.toString())) {
+                out.write(ByteBuffer.wrap("abandoned\n".getBytes()));
+            }
+            assertEquals("old\n", Files.readString(target), "Uncommitted output must not replace the target.");
+
+            try (FileHandler.AtomicOutput out = handler.createAtomicOutput(target.toString())) {
+                out.write(ByteBuffer.wrap("new\n".getBytes()));
+                out.commit();
+            }
+            assertEquals("new\n", Files.readString(target));
+            try (Stream<Path> files = Files.list(DATA_DIR)) {
+                assertTrue(files.noneMatch(p -> p.getFileName().toString().endsWith(".tmp")),
+                        "Temporary files should not be left behind.");
+            }
+        } finally {
+            Files.deleteIfExists(target);
+        }
+    }
+
+    @Test
+    void privateFiles_areOwnerOnlyAndReplaced() throws IOException {
+        Path dir = Files.createTempDirectory("runtime").resolve(".topsecret");
+        Path token = dir.resolve("token");
+
+        FileHandler.createPrivateDirectory(dir);
+        FileHandler.writePrivateFile(token, "first\n");
+        FileHandler.writePrivateFile(token, "second\n");
+
+        assertEquals("second\n", FileHandler.readPrivateFile(token));
+        if (dir.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            assertEquals(PosixFilePermissions.fromString("rwx------"), Files.getPosixFilePermissions(dir));
+            assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(token));
+
+            Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwxr-x---"));
+            assertThrows(IOException.class, () -> FileHandler.createPrivateDirectory(dir));
+        }
+        FileHandler.deleteIfExists(token);
+        assertFalse(FileHandler.exists(token));
+    }
 }
@@ -0,0 +1,90 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeyRecoveryTest {
+
+    private static final String PLAIN = """
+            It was a bright cold day in the harbour town, and the fishing boats had already gone out before
+            the sun came up. Martha walked down to the quay with her basket, as she did every Tuesday, to buy
+            whatever the early boats had brought back. The market was smaller than it used to be. When she was
+            a girl there had been twenty stalls or more along the water, each with its own family and its own
+            way of shouting the prices. Now there were only six, and two of those sold souvenirs to the tourists
+            who came in the summer. She bought a piece of cod and a bag of mussels from the old man at the end
+            of the row, who had known her father, and stopped to talk to him for a while about the weather and
+            the price of diesel. He told her that his son wanted to sell the boat and move to the city, where he
+            could earn twice as much working in an office and never have to get up before dawn again.
+            """;
+
+    @Test
+    void recover_englishText_decodesAlmostEveryLetter() {
+        Cipher cipher = new Cipher();
+        CipherKey key = randomKey(42);
+        String cipherText = cipher.encipher(PLAIN, key);
+
+        KeyRecovery.Result result = new KeyRecovery(KeyRecovery.Model.english(), 2, 7).recover(cipherText);
+        String decoded = cipher.decipher(cipherText, result.toCipherKey());
+
+        int letters = 0;
+        int right = 0;
+        for (int i = 0; i < PLAIN.length(); i++) {
+            if (Character.isLetter(PLAIN.charAt(i))) {
+                letters++;
+                if (decoded.charAt(i) == PLAIN.charAt(i)) {
+                    right++;
+                }
+            }
+        }
+        assertTrue(right >= 0.95 * letters, right + " of " + letters + " letters decoded correctly");
+        assertEquals(2, result.getRestarts());
+        assertTrue(result.getAgreeingRestarts() >= 1);
+        assertEquals(KeyRecovery.ALPHABET, result.getActualLine());
+    }
+
+    @Test
+    void recover_writesAPermutationOfTheAlphabet() {
+        KeyRecovery.Result result = new KeyRecovery(KeyRecovery.Model.english(), 1, 1).recover("xyz qrs");
+
+        char[] sorted = result.getCipherLine().toCharArray();
+        Arrays.sort(sorted);
+        char[] alphabet = KeyRecovery.ALPHABET.toCharArray();
+        Arrays.sort(alphabet);
+        assertArrayEquals(alphabet, sorted);
+    }
+
+    @Test
+    void recover_sameSeed_sameKey() {
+        String cipherText = new Cipher().encipher(PLAIN, randomKey(3));
+        KeyRecovery.Model model = KeyRecovery.Model.train(ReferenceText.ENGLISH);
+
+        assertEquals(new KeyRecovery(model, 2, 5).recover(cipherText).getCipherLine(),
+                new KeyRecovery(model, 2, 5).recover(cipherText).getCipherLine());
+    }
+
+    @Test
+    void recover_textWithoutAlphabetCharacters_throws() {
+        assertThrows(IllegalArgumentException.class, () -> new KeyRecovery().recover("... !? --\n"));
+    }
+
+    @Test
+    void constructor_rejectsZeroRestarts() {
+        assertThrows(IllegalArgumentException.class, () -> new KeyRecovery(KeyRecovery.Model.english(), 0, 1));
+    }
+
+    /**
+     * Key that maps ALPHABET to a random permutation of itself.
+     */
+    private static CipherKey randomKey(long seed) {
+        List<Integer> shuffled = new ArrayList<>();
+        KeyRecovery.ALPHABET.chars().forEach(shuffled::add);
+        Collections.shuffle(shuffled, new Random(seed));
+        int[] cipher = shuffled.stream().mapToInt(Integer::intValue).toArray();
+        return new CipherKey(cipher, KeyRecovery.ALPHABET.codePoints().toArray());
+    }
+}
@@ -0,0 +1,191 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeyRegistryTest {
+
+    @Test
+    void publish_replacesKeyAndCountsVersions() {
+        KeyRegistry registry = new KeyRegistry();
+        CipherKey first = shiftKey(1);
+        CipherKey second = shiftKey(2);
+
+        assertNull(registry.get("live"));
+        assertEquals(1, registry.publish("live", first).getNumber());
+        assertSame(first, registry.get("live"));
+        assertEquals(2, registry.publish("live", second).getNumber());
+        assertSame(second, registry.get("live"));
+        assertEquals(Set.of("live"), registry.names());
+
+        assertTrue(registry.remove("live"));
+        assertFalse(registry.remove("live"));
+        assertNull(registry.current("live"));
+    }
+
+    @Test
+    void concurrentPublishers_neverLoseAVersion() throws Exception {
+        KeyRegistry registry = new KeyRegistry();
+        CipherKey key = shiftKey(1);
+        int threads = 8;
+        int publishes = 2000;
+
+        runConcurrently(threads, () -> {
+            for (int i = 0; i < publishes; i++) {
+                registry.publish("live", key);
+                registry.publish("other-" + (i % 4), key);
+            }
+        });
+
+        assertEquals((long) threads * publishes, registry.current("live").getNumber());
+        assertEquals(5, registry.names().size());
+    }
+
+    @Test
+    void stress_decodesDuringRotation_alwaysUseOneWholeKey() throws Exception {
+        KeyRegistry registry = new KeyRegistry();
+        CipherKey[] keys = {shiftKey(1), shiftKey(2)};
+        registry.publish("live", keys[0]);
+
+        Cipher cipher = new Cipher();
+        cipher.setParallelThreshold(256);
+        String text = "the quick brown fox jumps over the lazy dog\n".repeat(50);
+        String[] expected = {cipher.decipher(text, keys[0]), cipher.decipher(text, keys[1])};
+        AtomicBoolean rotating = new AtomicBoolean(true);
+
+        ExecutorService rotator = Executors.newSingleThreadExecutor();
+        Future<?> rotation = rotator.submit(() -> {
+            for (int i = 0; rotating.get(); i++) {
+                registry.publish("live", keys[i & 1]);
+            }
+        });
+        try {
+            runConcurrently(8, () -> {
+                for (int i = 0; i < 500; i++) {
+                    String decoded = cipher.decipher(text, registry.get("live"));
+                    assertTrue(decoded.equals(expected[0]) || decoded.equals(expected[1]),
+                            "decode mixed two key versions");
+                }
+            });
+        } finally {
+            rotating.set(false);
+            rotation.get(10, TimeUnit.SECONDS);
+            rotator.shutdown();
+        }
+        assertTrue(registry.current("live").getNumber() > 1);
+    }
+
+    @Test
+    void stress_sharedProgramControlDuringPublishKey_alwaysUsesOneWholeKey() throws Exception {
+        // Its own data folder, so listings in other tests never see this file
+        Path dataFile = Files.createTempDirectory("data").resolve("kilo_rotation.txt");
+        Path keyDir = Files.createTempDirectory("keys");
+        CipherKey[] keys = {shiftKey(1), shiftKey(2)};
+        String[] keyFiles = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            Path keyFile = keyDir.resolve("key" + i + ".tkey");
+            try (FileChannel out = FileChannel.open(keyFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                CompiledKey.write(keys[i], out);
+            }
+            keyFiles[i] = keyFile.toString();
+        }
+        String text = "the quick brown fox jumps over the lazy dog\n".repeat(50);
+        Files.writeString(dataFile, text);
+
+        AtomicBoolean rotating = new AtomicBoolean(true);
+        ExecutorService rotator = Executors.newSingleThreadExecutor();
+        try (FileHandler handler = FileHandler.forDirectory(dataFile.getParent().toFile())) {
+            Cipher cipher = new Cipher();
+            cipher.setParallelThreshold(256);
+            ProgramControl pc = new ProgramControl(cipher, handler, "unused.key");
+            pc.publishKey("live", keyFiles[0]);
+            int fileNumber = pc.getFileList().indexOf("kilo_rotation.txt") + 1;
+            String[] expected = {cipher.decipher(text, keys[0]), cipher.decipher(text, keys[1])};
+
+            Future<?> rotation = rotator.submit(() -> {
+                for (int i = 0; rotating.get(); i++) {
+                    pc.publishKey("live", keyFiles[i & 1]);
+                }
+                return null;
+            });
+            try {
+                runConcurrently(8, () -> {
+                    for (int i = 0; i < 200; i++) {
+                        String read = pc.getFileContent(fileNumber, "registry:live");
+                        StringWriter streamed = new StringWriter();
+                        pc.writeFileContent(fileNumber, "registry:live", streamed);
+                        for (String decoded : new String[] {read, streamed.toString()}) {
+                            assertTrue(decoded.equals(expected[0]) || decoded.equals(expected[1]),
+                                    "decode mixed two key versions");
+                        }
+                    }
+                });
+            } finally {
+                rotating.set(false);
+                rotation.get(10, TimeUnit.SECONDS);
+            }
+            assertTrue(pc.getKeyRegistry().current("live").getNumber() > 1);
+        } finally {
+            rotator.shutdown();
+            Files.deleteIfExists(dataFile);
+            Files.deleteIfExists(dataFile.getParent());
+            for (String keyFile : keyFiles) {
+                Files.deleteIfExists(Paths.get(keyFile));
+            }
+            Files.deleteIfExists(keyDir);
+        }
+    }
+
+    /**
+     * Key that decodes each lower-case letter shift places back.
+     */
+    private static CipherKey shiftKey(int shift) {
+        int[] cipher = new int[26];
+        int[] actual = new int[26];
+        for (int i = 0; i < 26; i++) {
+            actual[i] = 'a' + i;
+            cipher[i] = 'a' + (i + shift) % 26;
+        }
+        return new CipherKey(cipher, actual);
+    }
+
+    private interface Body {
+        void run() throws Exception;
+    }
+
+    private static void runConcurrently(int threads, Body body) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    body.run();
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
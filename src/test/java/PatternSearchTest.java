@@ -0,0 +1,68 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PatternSearchTest {
+
+    private static final String TEXT = "no match here\r\nfind me, find me\rx\n\nlast line find";
+
+    @Test
+    void search_stream_reportsLineOffsetAndText() throws IOException {
+        PatternSearch search = new PatternSearch(bytes("find"));
+
+        List<PatternSearch.Hit> hits = search.search(new ByteArrayInputStream(bytes(TEXT)));
+
+        assertEquals(2, hits.size());
+        assertEquals(2, hits.get(0).getLine());
+        assertEquals(15, hits.get(0).getOffset());
+        assertEquals("find me, find me", new String(hits.get(0).getLineBytes(), StandardCharsets.UTF_8));
+        assertEquals(5, hits.get(1).getLine());
+        assertEquals(TEXT.lastIndexOf("find"), hits.get(1).getOffset());
+        assertEquals("last line find", new String(hits.get(1).getLineBytes(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void search_segments_matchesStreamAcrossBoundaries() throws IOException {
+        PatternSearch search = new PatternSearch(bytes("find"));
+        byte[] data = bytes(TEXT);
+        List<ByteBuffer> segments = new ArrayList<>();
+        for (int pos = 0; pos < data.length; pos += 8) {
+            segments.add(ByteBuffer.wrap(data, pos, Math.min(8, data.length - pos)).slice());
+        }
+
+        List<PatternSearch.Hit> mapped = search.search(segments, 8);
+        List<PatternSearch.Hit> streamed = search.search(new ByteArrayInputStream(data));
+
+        assertEquals(streamed.size(), mapped.size());
+        for (int i = 0; i < streamed.size(); i++) {
+            assertEquals(streamed.get(i).getLine(), mapped.get(i).getLine());
+            assertEquals(streamed.get(i).getOffset(), mapped.get(i).getOffset());
+            assertArrayEquals(streamed.get(i).getLineBytes(), mapped.get(i).getLineBytes());
+        }
+    }
+
+    @Test
+    void indexOf_findsRepeatedAndOverlappingPatterns() {
+        PatternSearch search = new PatternSearch(bytes("aab"));
+
+        assertEquals(3, search.indexOf(bytes("aaaaab"), 6));
+        assertEquals(-1, search.indexOf(bytes("aaaaab"), 5));
+    }
+
+    @Test
+    void constructor_rejectsEmptyOrMultiLinePatterns() {
+        assertThrows(IllegalArgumentException.class, () -> new PatternSearch(new byte[0]));
+        assertThrows(IllegalArgumentException.class, () -> new PatternSearch(bytes("a\nb")));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
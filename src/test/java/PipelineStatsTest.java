@@ -0,0 +1,169 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PipelineStatsTest {
+
+    @BeforeEach
+    void setUp() {
+        PipelineStats.get().reset();
+    }
+
+    @AfterEach
+    void tearDown() {
+        PipelineStats.get().setEnabled(false);
+        PipelineStats.get().reset();
+    }
+
+    @Test
+    void disabled_recordsNothing() {
+        PipelineStats.get().setEnabled(false);
+
+        long start = PipelineStats.start();
+        PipelineStats.DECIPHER.record(start, 100);
+
+        assertEquals(0, start);
+        assertEquals(0, PipelineStats.get().getDecipher().getCount());
+    }
+
+    @Test
+    void enabled_recordsCallsBytesAndLatency() {
+        PipelineStats.get().setEnabled(true);
+
+        PipelineStats.DECIPHER.record(PipelineStats.start(), 100);
+        PipelineStats.DECIPHER.record(PipelineStats.start(), 50);
+
+        PipelineStats.Snapshot s = PipelineStats.get().getDecipher();
+        assertEquals(2, s.getCount());
+        assertEquals(150, s.getBytes());
+        assertTrue(s.getP99Micros() <= s.getMaxMicros());
+    }
+
+    @Test
+    void timedStream_recordsOutputBytes() throws IOException {
+        PipelineStats.get().setEnabled(true);
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+
+        try (OutputStream out = PipelineStats.timed(sink)) {
+            out.write("hello".getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertEquals("hello", sink.toString(StandardCharsets.UTF_8));
+        assertEquals(5, PipelineStats.get().getOutput().getBytes());
+    }
+
+    @Test
+    void mbean_exposesStageSnapshots() throws Exception {
+        PipelineStats.registerMBean();
+        PipelineStats.get().setEnabled(true);
+        PipelineStats.LOAD_KEY.record(PipelineStats.start(), 0);
+
+        CompositeData loadKey = (CompositeData) ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(new ObjectName(PipelineStats.MBEAN_NAME), "LoadKey");
+
+        assertEquals(1L, loadKey.get("count"));
+    }
+
+    @Test
+    void statsFlag_printsSummaryWhenRunEnds() {
+        ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+        Userinterface ui = new Userinterface(null, new PrintStream(new ByteArrayOutputStream()),
+                new PrintStream(errBytes));
+
+        ui.run(new String[]{"--stats"});
+
+        assertTrue(errBytes.toString(StandardCharsets.UTF_8).contains("Pipeline stats:"));
+        assertFalse(PipelineStats.get().isEnabled());
+    }
+
+    @Test
+    void statsFlag_leavesTheGlobalSwitchAndCountersAlone() {
+        PipelineStats.get().setEnabled(true);
+        PipelineStats.LOAD_KEY.record(PipelineStats.start(), 0);
+        Userinterface ui = new Userinterface(null, new PrintStream(new ByteArrayOutputStream()),
+                new PrintStream(new ByteArrayOutputStream()));
+
+        ui.run(new String[]{"--stats"});
+
+        assertTrue(PipelineStats.get().isEnabled());
+        assertEquals(1, PipelineStats.get().getLoadKey().getCount());
+    }
+
+    @Test
+    void request_countsOnlyItsOwnThreadAndNotTheGlobalCounters() throws Exception {
+        PipelineStats.get().setEnabled(false);
+
+        try (PipelineStats.Request request = PipelineStats.beginRequest()) {
+            PipelineStats.DECIPHER.record(PipelineStats.start(), 100);
+            AtomicLong otherBytes = new AtomicLong();
+            Thread other = new Thread(() -> {
+                try (PipelineStats.Request own = PipelineStats.beginRequest()) {
+                    PipelineStats.DECIPHER.record(PipelineStats.start(), 7);
+                    otherBytes.set(own.snapshot(PipelineStats.DECIPHER).getBytes());
+                }
+            });
+            other.start();
+            other.join();
+
+            assertEquals(100, request.snapshot(PipelineStats.DECIPHER).getBytes());
+            assertEquals(7, otherBytes.get());
+        }
+
+        assertEquals(0, PipelineStats.get().getDecipher().getCount());
+        assertEquals(0, PipelineStats.start());
+    }
+
+    @Test
+    void request_isNotInheritedByThreadsStartedDuringIt() throws Exception {
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> started;
+            try (PipelineStats.Request request = PipelineStats.beginRequest()) {
+                // The pool's thread is created inside the request and outlives it
+                started = pool.submit(() -> PipelineStats.DECIPHER.record(PipelineStats.start(), 5));
+                started.get();
+                assertEquals(0, request.snapshot(PipelineStats.DECIPHER).getCount());
+            }
+            assertFalse(pool.submit(PipelineStats::isRecording).get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void inCurrentRequest_attributesPoolWorkOnlyWhileTheRequestIsOpen() throws Exception {
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Callable<Boolean> late;
+            try (PipelineStats.Request request = PipelineStats.beginRequest()) {
+                pool.submit(PipelineStats.inCurrentRequest(() -> {
+                    PipelineStats.DECIPHER.record(PipelineStats.start(), 5);
+                    return null;
+                })).get();
+                assertEquals(5, request.snapshot(PipelineStats.DECIPHER).getBytes());
+                late = PipelineStats.inCurrentRequest(PipelineStats::isRecording);
+            }
+
+            assertFalse(pool.submit(late).get(), "A closed request must not be recorded into.");
+            assertFalse(pool.submit(PipelineStats::isRecording).get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
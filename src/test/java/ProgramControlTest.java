@@ -1,14 +1,46 @@
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -43,8 +75,10 @@ public class ProgramControlTest {
     void getFileContent_validIndex_returnsDecipheredText() throws Exception {
         // Arrange
         doReturn(new ArrayList<>(List.of("filea.txt", "fileb.txt"))).when(fileHandler).listFiles();
+        CipherKey key = new CipherKey(Map.of('b', 'a'));
         when(fileHandler.readFile("filea.txt")).thenReturn("ENCRYPTED");
-        when(cipher.decipher("ENCRYPTED", "mykey.key")).thenReturn("Hello from A");
+        when(cipher.loadKey("mykey.key")).thenReturn(key);
+        when(cipher.decipher("ENCRYPTED", key)).thenReturn("Hello from A");
 
         // Act
         String content = pc.getFileContent(1, "mykey.key");
@@ -53,10 +87,43 @@ public class ProgramControlTest {
         assertEquals("Hello from A", content);
         verify(fileHandler).listFiles();
         verify(fileHandler).readFile("filea.txt");
-        verify(cipher).decipher("ENCRYPTED", "mykey.key");
+        verify(cipher).loadKey("mykey.key");
+        verify(cipher).decipher("ENCRYPTED", key);
         verifyNoMoreInteractions(fileHandler, cipher);
     }
 
+    @Test
+    void getFileContent_publishedKeyName_usesCurrentPublishedKey() throws Exception {
+        CipherKey first = new CipherKey(Map.of('b', 'a'));
+        CipherKey second = new CipherKey(Map.of('c', 'a'));
+        doReturn(new ArrayList<>(List.of("filea.txt"))).when(fileHandler).listFiles();
+        when(fileHandler.readFile("filea.txt")).thenReturn("ENCRYPTED");
+        when(cipher.loadKey("v1.key")).thenReturn(first);
+        when(cipher.loadKey("v2.key")).thenReturn(second);
+        when(cipher.decipher("ENCRYPTED", first)).thenReturn("old");
+        when(cipher.decipher("ENCRYPTED", second)).thenReturn("new");
+
+        pc.publishKey("live", "v1.key");
+        assertEquals("old", pc.getFileContent(1, "registry:live"));
+        assertEquals(2, pc.publishKey("live", "v2.key").getNumber());
+        assertEquals("new", pc.getFileContent(1, "registry:live"));
+    }
+
+    @Test
+    void getFileContent_publishedNameDoesNotHideKeyFileOfTheSameName() throws Exception {
+        CipherKey published = new CipherKey(Map.of('b', 'a'));
+        CipherKey file = new CipherKey(Map.of('c', 'a'));
+        doReturn(new ArrayList<>(List.of("filea.txt"))).when(fileHandler).listFiles();
+        when(fileHandler.readFile("filea.txt")).thenReturn("ENCRYPTED");
+        when(cipher.loadKey("live")).thenReturn(file);
+        when(cipher.decipher("ENCRYPTED", file)).thenReturn("from file");
+        pc.getKeyRegistry().publish("live", published);
+
+        assertEquals("from file", pc.getFileContent(1, "live"));
+        IOException missing = assertThrows(IOException.class, () -> pc.getFileContent(1, "registry:other"));
+        assertTrue(missing.getMessage().contains("other"));
+    }
+
     @Test
     void getFileContent_invalidIndex_throwsIllegalArgumentException() {
         doReturn(new ArrayList<>(List.of("filea.txt", "fileb.txt"))).when(fileHandler).listFiles();
@@ -79,4 +146,400 @@ public class ProgramControlTest {
         verify(fileHandler).readFile("filea.txt");
         verifyNoInteractions(cipher);
     }
+
+    @Test
+    void writeFileContent_validIndex_streamsThroughCipher() throws Exception {
+        doReturn(new ArrayList<>(List.of("filea.txt", "fileb.txt"))).when(fileHandler).listFiles();
+        Reader reader = new StringReader("ENCRYPTED");
+        when(fileHandler.openFile("fileb.txt")).thenReturn(reader);
+        StringWriter out = new StringWriter();
+        CipherKey key = new CipherKey(Map.of('b', 'a'));
+        when(cipher.loadKey("mykey.key")).thenReturn(key);
+
+        pc.writeFileContent(2, "mykey.key", out);
+
+        verify(fileHandler).listFiles();
+        verify(fileHandler).openFile("fileb.txt");
+        verify(cipher).loadKey("mykey.key");
+        verify(cipher).decipher(reader, out, key);
+        verifyNoMoreInteractions(fileHandler, cipher);
+    }
+
+    @Test
+    void writeFileLines_readsOnlyTheRequestedRange() throws Exception {
+        doReturn(new ArrayList<>(List.of("filea.txt", "fileb.txt"))).when(fileHandler).listFiles();
+        CipherKey key = new CipherKey(Map.of('b', 'a'));
+        Reader reader = new StringReader("b\n");
+        when(cipher.loadKey("mykey.key")).thenReturn(key);
+        when(fileHandler.openLines("fileb.txt", 10, 20)).thenReturn(reader);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        pc.writeFileLines(2, "mykey.key", 10, 20, out);
+
+        verify(fileHandler).openLines("fileb.txt", 10, 20);
+        verify(cipher).decipher(eq(reader), any(Writer.class), eq(key));
+        verify(fileHandler, never()).openFile(anyString());
+    }
+
+    @Test
+    void writeFileContent_largeFileAsciiKey_usesMappedBytes() throws Exception {
+        doReturn(new ArrayList<>(List.of("filea.txt"))).when(fileHandler).listFiles();
+        CipherKey key = new CipherKey(Map.of('b', 'a'));
+        List<MappedByteBuffer> segments = List.of();
+        when(cipher.loadKey("mykey.key")).thenReturn(key);
+        when(fileHandler.shouldMap("filea.txt")).thenReturn(true);
+        doReturn(segments).when(fileHandler).mapFile("filea.txt");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // The test task pins file.encoding=UTF-8, so this only skips when run elsewhere
+        assumeTrue(
+                FileHandler.passesBytesThrough(Charset.defaultCharset()));
+        pc.writeFileContent(1, "mykey.key", out);
+
+        verify(cipher).decipher(segments, out, key);
+        verify(fileHandler, never()).openFile(anyString());
+    }
+
+    @Test
+    void writeFileContentToChannel_largeFileAsciiKey_decodesStraightIntoTheChannel() throws Exception {
+        doReturn(new ArrayList<>(List.of("filea.txt"))).when(fileHandler).listFiles();
+        CipherKey key = new CipherKey(Map.of('b', 'a'));
+        List<MappedByteBuffer> segments = List.of();
+        when(cipher.loadKey("mykey.key")).thenReturn(key);
+        when(fileHandler.shouldMap("filea.txt")).thenReturn(true);
+        doReturn(segments).when(fileHandler).mapFile("filea.txt");
+        WritableByteChannel out = Channels.newChannel(new ByteArrayOutputStream());
+
+        // The test task pins file.encoding=UTF-8, so this only skips when run elsewhere
+        assumeTrue(FileHandler.passesBytesThrough(Charset.defaultCharset()));
+        pc.writeFileContent(1, "mykey.key", out);
+
+        verify(cipher).decipher(segments, out, key);
+        verify(cipher, never()).decipher(eq(segments), any(OutputStream.class), eq(key));
+    }
+
+    @Test
+    void encipherFile_asciiKey_streamsBytesIntoNewDataFile() throws Exception {
+        CipherKey key = new CipherKey(Map.of('b', 'a'));
+        InputStream in = new ByteArrayInputStream("a".getBytes());
+        Path dir = Files.createTempDirectory("encipher");
+        Path tmp = dir.resolve(".file09.txt.tmp");
+        Files.createFile(tmp);
+        when(cipher.loadKey("mykey.key")).thenReturn(key);
+        when(fileHandler.openPlainFile("notes.txt")).thenReturn(in);
+        when(fileHandler.createAtomicDataFile("file09.txt")).thenReturn(new FileHandler.AtomicOutput(
+                FileChannel.open(tmp, StandardOpenOption.WRITE), tmp,
+                dir.resolve("file09.txt"), false, false));
+
+        // The test task pins file.encoding=UTF-8, so this only skips when run elsewhere
+        assumeTrue(
+                FileHandler.passesBytesThrough(Charset.defaultCharset()));
+        pc.encipherFile("notes.txt", "file09.txt", "mykey.key");
+
+        verify(cipher).encipher(eq(in), any(OutputStream.class), eq(key));
+        assertTrue(Files.exists(dir.resolve("file09.txt")));
+        assertFalse(Files.exists(tmp));
+    }
+
+    @Test
+    void encipherFile_failure_leavesNoDataFile() throws Exception {
+        CipherKey key = new CipherKey(Map.of('b', 'a'));
+        Path dir = Files.createTempDirectory("encipher");
+        Path tmp = dir.resolve(".file09.txt.tmp");
+        Files.createFile(tmp);
+        when(cipher.loadKey("mykey.key")).thenReturn(key);
+        when(fileHandler.openPlainFile("notes.txt")).thenReturn(new ByteArrayInputStream("a".getBytes()));
+        when(fileHandler.createAtomicDataFile("file09.txt")).thenReturn(new FileHandler.AtomicOutput(
+                FileChannel.open(tmp, StandardOpenOption.WRITE), tmp,
+                dir.resolve("file09.txt"), false, false));
+        doThrow(new IOException("disk full")).when(cipher).encipher(any(InputStream.class),
+                any(OutputStream.class), eq(key));
+        lenient().doThrow(new IOException("disk full")).when(cipher).encipher(any(Reader.class),
+                any(Writer.class), eq(key));
+
+        assertThrows(IOException.class, () -> pc.encipherFile("notes.txt", "file09.txt", "mykey.key"));
+
+        assertFalse(Files.exists(dir.resolve("file09.txt")));
+        assertFalse(Files.exists(tmp));
+    }
+
+    @Test
+    void recoverKey_writesKeyFileThatLoadsAndDeciphers() throws Exception {
+        String plain = "The old man at the end of the row told her that his son wanted to sell the boat "
+                + "and move to the city, where he could earn twice as much working in an office.\n";
+        Cipher real = new Cipher();
+        String cipherText = real.encipher(plain, new CipherKey(Map.of('a', 'e', 'e', 'a', 't', 'o', 'o', 't')));
+        Path output = Files.createTempFile("recovered", ".txt");
+        doReturn(new ArrayList<>(List.of("filea.txt"))).when(fileHandler).listFiles();
+        when(fileHandler.readFile("filea.txt")).thenReturn(cipherText);
+        when(fileHandler.createAtomicOutput(output.toString()))
+                .thenAnswer(inv -> new FileHandler().createAtomicOutput(output.toString()));
+
+        try {
+            KeyRecovery.Result result = pc.recoverKey(1, output.toString(), null);
+
+            CipherKey recovered = real.loadKey(output.toString());
+            assertEquals(real.decipher(cipherText, result.toCipherKey()), real.decipher(cipherText, recovered));
+            assertTrue(result.getConfidence() > 0);
+        } finally {
+            Files.deleteIfExists(output);
+        }
+    }
+
+    @Test
+    void compileKey_writesThroughAnAtomicOutput() throws Exception {
+        Path output = Files.createTempFile("compiled", ".tkey");
+        FileHandler.AtomicOutput file = mock(FileHandler.AtomicOutput.class);
+        when(fileHandler.createAtomicOutput(output.toString())).thenReturn(file);
+
+        pc.compileKey("mykey.key", output.toString());
+
+        InOrder order = inOrder(cipher, file);
+        order.verify(cipher).compileKey("mykey.key", file);
+        order.verify(file).commit();
+        order.verify(file).close();
+    }
+
+    @Test
+    void search_reportsFileNumbersInListingOrder() throws Exception {
+        doReturn(new ArrayList<>(List.of("filea.txt", "fileb.txt", "filec.txt"))).when(fileHandler).listFiles();
+        CipherKey key = new CipherKey(Map.of('b', 'a'));
+        when(cipher.loadKey("mykey.key")).thenReturn(key);
+        when(cipher.encipher("find", key)).thenReturn("find");
+        when(cipher.decipher(anyString(), eq(key))).thenAnswer(call -> call.getArgument(0));
+        when(fileHandler.shouldMap(anyString())).thenReturn(false);
+        when(fileHandler.openStream("filea.txt")).thenReturn(stream("nothing\n"));
+        when(fileHandler.openStream("fileb.txt")).thenReturn(stream("one\nfind b\n"));
+        when(fileHandler.openStream("filec.txt")).thenReturn(stream("find c\n"));
+
+        List<ProgramControl.SearchResult> results = pc.search("find", "mykey.key");
+
+        assertEquals(2, results.size());
+        assertEquals(2, results.get(0).getFileNumber());
+        assertEquals("fileb.txt", results.get(0).getFilename());
+        assertEquals(2, results.get(0).getLine());
+        assertEquals(3, results.get(1).getFileNumber());
+        assertEquals("filec.txt", results.get(1).getFilename());
+    }
+
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void search_patternTheCharsetCannotEncode_isRejectedBeforeScanning() throws Exception {
+        CipherKey key = new CipherKey(Map.of('b', 'a'));
+        when(cipher.loadKey("mykey.key")).thenReturn(key);
+        when(cipher.encipher("find", key)).thenReturn("fi\uD800d");
+
+        assertThrows(IllegalArgumentException.class, () -> pc.search("find", "mykey.key"));
+        verify(fileHandler, never()).listFiles();
+    }
+
+    @Test
+    void getFileContents_sharesOneKeyAndKeepsOrder() throws Exception {
+        doReturn(new ArrayList<>(List.of("filea.txt", "fileb.txt", "filec.txt"))).when(fileHandler).listFiles();
+        CipherKey key = new CipherKey(Map.of('b', 'a'));
+        when(cipher.loadKey("mykey.key")).thenReturn(key);
+        when(fileHandler.readFile("filec.txt")).thenReturn("C");
+        when(fileHandler.readFile("filea.txt")).thenReturn("A");
+        when(cipher.decipher("C", key)).thenReturn("plain C");
+        when(cipher.decipher("A", key)).thenReturn("plain A");
+
+        List<String> contents = pc.getFileContents(List.of(3, 1), "mykey.key");
+
+        assertEquals(List.of("plain C", "plain A"), contents);
+        verify(cipher, times(1)).loadKey("mykey.key");
+    }
+
+    @Test
+    void writeFileContents_plainAndCompressedTwin_writeDistinctOutputs() throws Exception {
+        doReturn(new ArrayList<>(List.of("filea.txt", "filea.txt.gz"))).when(fileHandler).listFiles();
+        CipherKey key = new CipherKey(Map.of('b', 'a'));
+        when(cipher.loadKey("mykey.key")).thenReturn(key);
+        when(fileHandler.openFile(anyString())).thenAnswer(inv -> new StringReader("b"));
+        Map<String, ByteArrayOutputStream> outputs = new ConcurrentHashMap<>();
+        when(fileHandler.createOutputFile(anyString())).thenAnswer(inv -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertNull(outputs.put(inv.getArgument(0), out), "Two files wrote to the same output");
+            return out;
+        });
+
+        List<String> written = pc.writeFileContents(List.of(1, 2), "mykey.key");
+
+        assertEquals(List.of("filea.txt.out", "filea.txt.gz.out"), written);
+        assertEquals(Set.of("filea.txt.out", "filea.txt.gz.out"), outputs.keySet());
+        verify(cipher, times(2)).decipher(any(Reader.class), any(Writer.class), eq(key));
+    }
+
+    @Test
+    void forEachFileContent_deliversInOrderWithNamesAndBoundedPrefetch() throws Exception {
+        int count = ProgramControl.BATCH_PREFETCH + 6;
+        List<String> names = new ArrayList<>();
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            names.add(String.format("file%03d.txt", i));
+            indices.add(count - i);
+        }
+        doReturn(names).when(fileHandler).listFiles();
+        CipherKey key = new CipherKey(Map.of('b', 'a'));
+        when(cipher.loadKey("mykey.key")).thenReturn(key);
+        AtomicInteger reads = new AtomicInteger();
+        when(fileHandler.readFile(anyString())).thenAnswer(inv -> {
+            reads.incrementAndGet();
+            return inv.getArgument(0);
+        });
+        when(cipher.decipher(anyString(), eq(key))).thenAnswer(inv -> "plain " + inv.getArgument(0));
+
+        List<String> seen = new ArrayList<>();
+        pc.forEachFileContent(indices, "mykey.key", (number, filename, content) -> {
+            assertTrue(reads.get() <= seen.size() + ProgramControl.BATCH_PREFETCH + 1,
+                    "Read " + reads.get() + " files while consuming file " + (seen.size() + 1));
+            assertEquals(names.get(number - 1), filename);
+            assertEquals("plain " + filename, content);
+            seen.add(filename);
+        });
+
+        List<String> expected = new ArrayList<>(names);
+        Collections.reverse(expected);
+        assertEquals(expected, seen);
+    }
+
+    @Test
+    void getFileContents_invalidIndex_throwsBeforeLoadingKey() {
+        doReturn(new ArrayList<>(List.of("filea.txt"))).when(fileHandler).listFiles();
+
+        assertThrows(IllegalArgumentException.class, () -> pc.getFileContents(List.of(1, 2), "any.key"));
+        verifyNoInteractions(cipher);
+    }
+
+    @Test
+    void getFileContentAsync_chunkedDecodeMatchesSynchronousDecipher() throws Exception {
+        CipherKey key = new CipherKey(Map.of('b', 'a', 'c', 'b', 'a', 'c'));
+        // odd prefix so surrogate pairs straddle chunk boundaries
+        String text = "x" + "abc \ud83d\ude00\n".repeat(3 * ProgramControl.ASYNC_CHUNK_SIZE / 7);
+        doReturn(new ArrayList<>(List.of("filea.txt"))).when(fileHandler).listFiles();
+        when(fileHandler.openFile("filea.txt")).thenReturn(new StringReader(text));
+        ProgramControl async = new ProgramControl(new Cipher(), fileHandler, "unused.key");
+        async.getKeyRegistry().publish("live", key);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            String result = async.getFileContentAsync(1, "registry:live", executor).get(10, TimeUnit.SECONDS);
+
+            assertEquals(new Cipher().decipher(text, key), result);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void getFileContentAsync_defaultExecutor_usesAtMostAsyncThreads() throws Exception {
+        doReturn(new ArrayList<>(List.of("filea.txt"))).when(fileHandler).listFiles();
+        Set<Thread> readers = ConcurrentHashMap.newKeySet();
+        when(fileHandler.openFile("filea.txt")).thenAnswer(call -> {
+            readers.add(Thread.currentThread());
+            Thread.sleep(5);
+            return new StringReader("abc");
+        });
+        ProgramControl async = new ProgramControl(new Cipher(), fileHandler, "unused.key");
+        async.getKeyRegistry().publish("live", new CipherKey(Map.of('b', 'a')));
+
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 4 * ProgramControl.ASYNC_THREADS; i++) {
+            results.add(async.getFileContentAsync(1, "registry:live"));
+        }
+        for (CompletableFuture<String> result : results) {
+            assertEquals("aac", result.get(10, TimeUnit.SECONDS));
+        }
+
+        assertTrue(readers.size() <= ProgramControl.ASYNC_THREADS,
+                readers.size() + " threads read files");
+    }
+
+    @Test
+    void getFileContentsAsync_keepsOrderAndFailsOnBadIndex() throws Exception {
+        doReturn(new ArrayList<>(List.of("filea.txt", "fileb.txt"))).when(fileHandler).listFiles();
+        when(fileHandler.openFile("filea.txt")).thenAnswer(inv -> new StringReader("b\n"));
+        when(fileHandler.openFile("fileb.txt")).thenAnswer(inv -> new StringReader("bb\n"));
+        ProgramControl async = new ProgramControl(new Cipher(), fileHandler, "unused.key");
+        async.getKeyRegistry().publish("live", new CipherKey(Map.of('b', 'a')));
+
+        assertEquals(List.of("aa\n", "a\n"),
+                async.getFileContentsAsync(List.of(2, 1), "registry:live", Runnable::run).get(10, TimeUnit.SECONDS));
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> async.getFileContentsAsync(List.of(1, 3), "registry:live", Runnable::run).get(10, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalArgumentException.class, e.getCause());
+    }
+
+    @Test
+    void getFileContentAsync_timeout_stopsReading() throws Exception {
+        CountDownLatch closed = new CountDownLatch(1);
+        Reader slow = new Reader() {
+            @Override
+            public int read(char[] buf, int off, int len) throws IOException {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                buf[off] = 'b';
+                return 1;
+            }
+
+            @Override
+            public void close() {
+                closed.countDown();
+            }
+        };
+        doReturn(new ArrayList<>(List.of("filea.txt"))).when(fileHandler).listFiles();
+        when(fileHandler.openFile("filea.txt")).thenReturn(slow);
+        ProgramControl async = new ProgramControl(new Cipher(), fileHandler, "unused.key");
+        async.getKeyRegistry().publish("live", new CipherKey(Map.of('b', 'a')));
+
+        CompletableFuture<String> future =
+                async.getFileContentAsync(1, "registry:live").orTimeout(100, TimeUnit.MILLISECONDS);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, e.getCause());
+        assertTrue(closed.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void getFileContent_resultCache_reusesUntilFileChanges() throws Exception {
+        CipherKey key = new CipherKey(Map.of('b', 'a'));
+        doReturn(new ArrayList<>(List.of("filea.txt"))).when(fileHandler).listFiles();
+        when(cipher.loadKey("mykey.key")).thenReturn(key);
+        when(fileHandler.readFile("filea.txt")).thenReturn("ENCRYPTED");
+        when(cipher.decipher("ENCRYPTED", key)).thenReturn("Hello from A");
+        when(fileHandler.fileSize("filea.txt")).thenReturn(10L);
+        when(fileHandler.lastModified("filea.txt")).thenReturn(1000L);
+        pc.setResultCache(new ResultCache(1 << 20, null));
+
+        assertEquals("Hello from A", pc.getFileContent(1, "mykey.key"));
+        assertEquals("Hello from A", pc.getFileContent(1, "mykey.key"));
+        verify(fileHandler, times(1)).readFile("filea.txt");
+
+        when(fileHandler.lastModified("filea.txt")).thenReturn(2000L);
+        pc.getFileContent(1, "mykey.key");
+        verify(fileHandler, times(2)).readFile("filea.txt");
+        assertEquals(1, pc.getResultCache().getHits());
+        assertEquals(2, pc.getResultCache().getMisses());
+    }
+
+    @Test
+    void lazyConstructor_buildsComponentsOnlyWhenNeeded() {
+        int[] built = new int[2];
+        ProgramControl lazy = new ProgramControl(
+                () -> { built[0]++; return cipher; },
+                () -> { built[1]++; return fileHandler; });
+        doReturn(new ArrayList<>(List.of("filea.txt"))).when(fileHandler).listFiles();
+
+        assertArrayEquals(new int[]{0, 0}, built);
+
+        lazy.getFileList();
+        lazy.getFileList();
+
+        assertArrayEquals(new int[]{0, 1}, built);
+    }
 }
@@ -0,0 +1,143 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResultCacheTest {
+
+    private static final long ENTRY = 2 * 10 + ResultCache.ENTRY_OVERHEAD;
+
+    @Test
+    void put_overBudget_evictsLeastRecentlyUsed() throws IOException {
+        ResultCache cache = new ResultCache(2 * ENTRY, null);
+        ResultCache.Key a = key("a.txt");
+        ResultCache.Key b = key("b.txt");
+        ResultCache.Key c = key("c.txt");
+
+        cache.put(a, "0123456789");
+        cache.put(b, "0123456789");
+        assertNotNull(cache.get(a));
+        cache.put(c, "0123456789");
+
+        assertNotNull(cache.get(a));
+        assertNull(cache.get(b));
+        assertNotNull(cache.get(c));
+        assertEquals(2 * ENTRY, cache.getBytes());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void get_differentModifiedTimeOrKey_misses() throws IOException {
+        ResultCache cache = new ResultCache(1 << 20, null);
+        cache.put(new ResultCache.Key("a.txt", 1, 10, "k1"), "text");
+
+        assertNull(cache.get(new ResultCache.Key("a.txt", 2, 10, "k1")));
+        assertNull(cache.get(new ResultCache.Key("a.txt", 1, 10, "k2")));
+        assertEquals("text", cache.get(new ResultCache.Key("a.txt", 1, 10, "k1")));
+    }
+
+    @Test
+    void spillFiles_areOwnerOnlyAndLeaveNoTemporaryFiles() throws IOException {
+        Path dir = Files.createTempDirectory("spill").resolve("cache");
+        ResultCache cache = new ResultCache(0, dir);
+
+        cache.put(key("a.txt"), "0123456789");
+
+        List<Path> files;
+        try (Stream<Path> listed = Files.list(dir)) {
+            files = listed.collect(Collectors.toList());
+        }
+        assertEquals(1, files.size());
+        assertTrue(files.get(0).getFileName().toString().endsWith(".spill"));
+        if (dir.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(files.get(0)));
+        }
+    }
+
+    @Test
+    void evictedEntries_spillToDiskAndComeBack() throws IOException {
+        Path dir = Files.createTempDirectory("spill").resolve("cache");
+        ResultCache cache = new ResultCache(ENTRY, dir);
+        ResultCache.Key a = key("a.txt");
+
+        cache.put(a, "0123456789");
+        cache.put(key("b.txt"), "abcdefghij");
+
+        assertEquals(1, cache.size());
+        assertEquals("0123456789", cache.get(a));
+        assertEquals(1, cache.getSpillHits());
+
+        ResultCache reopened = new ResultCache(ENTRY, dir);
+        assertEquals("abcdefghij", reopened.get(key("b.txt")));
+
+        reopened.clear();
+        assertNull(reopened.get(a));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void spillDir_overBudget_dropsLeastRecentlyUsedFiles() throws IOException {
+        Path dir = Files.createTempDirectory("spill").resolve("cache");
+        ResultCache cache = new ResultCache(0, dir, 25);
+
+        cache.put(key("a.txt"), "0123456789");
+        cache.put(key("b.txt"), "abcdefghij");
+        assertEquals("0123456789", cache.get(key("a.txt")));
+        cache.put(key("c.txt"), "ABCDEFGHIJ");
+
+        assertEquals(20, cache.getSpillBytes());
+        assertEquals("0123456789", cache.get(key("a.txt")));
+        assertNull(cache.get(key("b.txt")));
+        assertEquals("ABCDEFGHIJ", cache.get(key("c.txt")));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(2, files.count());
+        }
+
+        ResultCache reopened = new ResultCache(0, dir, 10);
+        assertEquals(10, reopened.getSpillBytes());
+        reopened.clear();
+    }
+
+    @Test
+    void sameFileUnderNewKey_deletesItsOldSpillFile() throws IOException {
+        Path dir = Files.createTempDirectory("spill").resolve("cache");
+        ResultCache cache = new ResultCache(0, dir);
+        ResultCache.Key before = new ResultCache.Key("a.txt", 1, 10, "fp");
+        ResultCache.Key after = new ResultCache.Key("a.txt", 2, 10, "fp");
+
+        cache.put(before, "0123456789");
+        assertTrue(Files.exists(dir.resolve(before.spillName())));
+        cache.put(after, "9876543210");
+
+        assertFalse(Files.exists(dir.resolve(before.spillName())));
+        assertEquals("9876543210", cache.get(after));
+        assertEquals(10, cache.getSpillBytes());
+        cache.clear();
+    }
+
+    @Test
+    void cipherKey_fingerprintDependsOnMappingOnly() {
+        CipherKey first = new CipherKey(Map.of('b', 'a', 'c', 'b'));
+        CipherKey same = new CipherKey(new int[] {'c', 'b'}, new int[] {'b', 'a'});
+        CipherKey other = new CipherKey(Map.of('b', 'a', 'c', 'd'));
+
+        assertEquals(first.fingerprint(), same.fingerprint());
+        assertNotEquals(first.fingerprint(), other.fingerprint());
+    }
+
+    private static ResultCache.Key key(String filename) {
+        return new ResultCache.Key(filename, 1, 10, "fp");
+    }
+}
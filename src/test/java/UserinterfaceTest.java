@@ -1,8 +1,21 @@
 import org.junit.jupiter.api.*;
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
 
 class UserinterfaceTest {
 
@@ -56,10 +69,10 @@ class UserinterfaceTest {
     }
 
     @Test
-    void invalidFileNumber_notTwoDigits_printsErrorAndUsage() {
-        ui.run(new String[]{"999"});
+    void invalidFileNumber_singleDigit_printsErrorAndUsage() {
+        ui.run(new String[]{"9"});
 
-        assertTrue(stderr().contains("Error: Invalid file number. Must be two digits (e.g., 01)."));
+        assertTrue(stderr().contains("Error: Invalid file number. Must be at least two digits (e.g., 01 or 120)."));
         assertUsagePrinted();
     }
 
@@ -67,7 +80,7 @@ class UserinterfaceTest {
     void invalidFileNumber_nonDigits_printsErrorAndUsage() {
         ui.run(new String[]{"ab"});
 
-        assertTrue(stderr().contains("Error: Invalid file number. Must be two digits (e.g., 01)."));
+        assertTrue(stderr().contains("Error: Invalid file number. Must be at least two digits (e.g., 01 or 120)."));
         assertUsagePrinted();
     }
 
@@ -75,7 +88,7 @@ class UserinterfaceTest {
     void invalidFileNumber_nullString_printsErrorAndUsage() {
         ui.run(new String[]{null});
 
-        assertTrue(stderr().contains("Error: Invalid file number. Must be two digits (e.g., 01)."));
+        assertTrue(stderr().contains("Error: Invalid file number. Must be at least two digits (e.g., 01 or 120)."));
         assertUsagePrinted();
     }
 
@@ -122,10 +135,12 @@ class UserinterfaceTest {
     }
 
     @Test
-    void isValidFileNumber_acceptsTwoDigits() {
+    void isValidFileNumber_acceptsTwoOrMoreDigits() {
         assertTrue(Userinterface.isValidFileNumber("00"));
         assertTrue(Userinterface.isValidFileNumber("01"));
         assertTrue(Userinterface.isValidFileNumber("99"));
+        assertTrue(Userinterface.isValidFileNumber("100"));
+        assertTrue(Userinterface.isValidFileNumber("123456789"));
     }
 
     @Test
@@ -133,10 +148,235 @@ class UserinterfaceTest {
         assertFalse(Userinterface.isValidFileNumber(null));
         assertFalse(Userinterface.isValidFileNumber(""));
         assertFalse(Userinterface.isValidFileNumber("0"));
-        assertFalse(Userinterface.isValidFileNumber("000"));
+        assertFalse(Userinterface.isValidFileNumber("1234567890"));
         assertFalse(Userinterface.isValidFileNumber("ab"));
         assertFalse(Userinterface.isValidFileNumber("1a"));
         assertFalse(Userinterface.isValidFileNumber(" 1"));
         assertFalse(Userinterface.isValidFileNumber("1 "));
     }
+
+    @Test
+    void batch_whenControlMissing_printsErrorAndUsage() {
+        ui.run(new String[]{"--all", "key.txt"});
+
+        assertTrue(stderr().contains("Error: Control is not configured"));
+        assertUsagePrinted();
+    }
+
+    @Test
+    void batch_filesWithoutList_printsErrorAndUsage() {
+        ui.run(new String[]{"--files"});
+
+        assertTrue(stderr().contains("Error: --files requires a list of file numbers"));
+        assertUsagePrinted();
+    }
+
+    @Test
+    void batchWithMalformedList_explainsFileNumberFormat() {
+        new Userinterface(mock(ProgramControl.class), out, err).run(new String[]{"--files", "1,3"});
+
+        assertTrue(stderr().contains("Error: Invalid file list. Use file numbers of at least two digits (e.g., 01 or 120)"));
+        assertUsagePrinted();
+    }
+
+    @Test
+    void recoverKey_withoutOutputFile_printsErrorAndUsage() {
+        ui.run(new String[]{"--recover-key", "01"});
+
+        assertTrue(stderr().contains("Error: --recover-key requires a file number and an output key file"));
+        assertUsagePrinted();
+    }
+
+    @Test
+    void recoverKey_invalidFileNumber_printsErrorAndUsage() {
+        ui.run(new String[]{"--recover-key", "1", "found.txt"});
+
+        assertTrue(stderr().contains("Error: Invalid file number"));
+        assertUsagePrinted();
+    }
+
+    @Test
+    void listPage_withoutValue_printsErrorAndUsage() {
+        ui.run(new String[]{"--page"});
+
+        assertTrue(stderr().contains("Error: --page requires a value"));
+        assertUsagePrinted();
+    }
+
+    @Test
+    void listPage_zeroLimit_printsErrorAndUsage() {
+        ui.run(new String[]{"--limit", "0"});
+
+        assertTrue(stderr().contains("Error: --limit requires a number of files of 1 or more"));
+        assertUsagePrinted();
+    }
+
+    @Test
+    void listPage_unknownOption_printsErrorAndUsage() {
+        ui.run(new String[]{"--page", "2", "--sort", "name"});
+
+        assertTrue(stderr().contains("Error: Unknown listing option --sort"));
+        assertUsagePrinted();
+    }
+
+    @Test
+    void listPage_printsOnePageWithGlobalFileNumbers() {
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            files.add(String.format("%s%03d.txt", i < 20 ? "memo" : "report", i));
+        }
+        ProgramControl control = mock(ProgramControl.class);
+        when(control.getFileList()).thenReturn(files);
+
+        new Userinterface(control, out, err).run(new String[]{"--prefix", "report", "--page", "3", "--limit", "40"});
+
+        String s = stdout();
+        assertTrue(s.contains("101 report100.txt"));
+        assertTrue(s.contains("140 report139.txt"));
+        assertFalse(s.contains("report099.txt"));
+        assertFalse(s.contains("report140.txt"));
+        assertTrue(s.contains("Page 3 of 4 (130 files)"));
+    }
+
+    @Test
+    void displayToStdout_writesThroughTheStdoutFileChannel() throws IOException {
+        ProgramControl control = mock(ProgramControl.class);
+
+        new Userinterface(control).run(new String[]{"01", "key.txt"});
+
+        verify(control).writeFileContent(eq(1), eq("key.txt"), argThat((WritableByteChannel c) -> c instanceof FileChannel));
+        verify(control, never()).writeFileContent(eq(1), eq("key.txt"), any(OutputStream.class));
+    }
+
+    @Test
+    void displayWithOutput_writesThroughTheAtomicOutputChannel() throws IOException {
+        ProgramControl control = mock(ProgramControl.class);
+        FileHandler.AtomicOutput file = mock(FileHandler.AtomicOutput.class);
+        when(control.openOutputFile("plain.txt")).thenReturn(file);
+
+        new Userinterface(control, out, err).run(new String[]{"01", "key.txt", "--output", "plain.txt"});
+
+        verify(control).writeFileContent(1, "key.txt", file);
+        verify(file).commit();
+        assertTrue(stdout().contains("01 -> plain.txt"));
+    }
+
+    @Test
+    void output_withBatchOrSearch_printsErrorAndUsage() {
+        ProgramControl control = mock(ProgramControl.class);
+
+        new Userinterface(control, out, err).run(new String[]{"--all", "--output", "plain.txt"});
+        new Userinterface(control, out, err).run(new String[]{"--search", "fox", "--output", "plain.txt"});
+
+        assertEquals(2, stderr().split("Error: --output only applies when showing one file", -1).length - 1);
+        verifyNoInteractions(control);
+        assertUsagePrinted();
+    }
+
+    @Test
+    void listPage_pastTheLastPage_printsErrorAndUsage() {
+        ProgramControl control = mock(ProgramControl.class);
+        when(control.getFileList()).thenReturn(List.of("a.txt", "b.txt", "c.txt"));
+
+        new Userinterface(control, out, err).run(new String[]{"--page", "10", "--limit", "1"});
+
+        assertTrue(stderr().contains("Error: Page 10 is out of range: there are 3 pages"));
+        assertFalse(stdout().contains("Page 10 of"));
+        assertUsagePrinted();
+    }
+
+    @Test
+    void batchOut_printsTheWrittenFileNames() throws IOException {
+        ProgramControl control = mock(ProgramControl.class);
+        when(control.writeFileContents(List.of(1, 2), "key.txt"))
+                .thenReturn(List.of("filea.txt.out", "filea.txt.gz.out"));
+
+        new Userinterface(control, out, err).run(new String[]{"--files", "01-02", "--out", "key.txt"});
+
+        assertTrue(stdout().contains("01 -> filea.txt.out"));
+        assertTrue(stdout().contains("02 -> filea.txt.gz.out"));
+    }
+
+    @Test
+    void batch_printsHeadersWithTheNamesTheContentCameFrom() throws IOException {
+        ProgramControl control = mock(ProgramControl.class);
+        doAnswer(inv -> {
+            ProgramControl.FileContentConsumer consumer = inv.getArgument(2);
+            consumer.accept(3, "filec.txt", "third");
+            consumer.accept(1, "filea.txt", "first");
+            return null;
+        }).when(control).forEachFileContent(eq(List.of(3, 1)),
+                eq("key.txt"), any());
+
+        new Userinterface(control, out, err).run(new String[]{"--files", "03,01", "key.txt"});
+
+        assertEquals(String.format("== 03 filec.txt ==%nthird%n== 01 filea.txt ==%nfirst%n"), stdout());
+        verify(control, never()).getFileList();
+    }
+
+    @Test
+    void prefixRange_findsTheContiguousMatches() {
+        List<String> files = List.of(
+                "alpha.txt", "report1.txt", "report2.txt", "reporting.txt", "reps.txt", "zulu.txt");
+
+        assertArrayEquals(new int[] {1, 4}, Userinterface.prefixRange(files, "report"));
+        assertArrayEquals(new int[] {0, 6}, Userinterface.prefixRange(files, ""));
+        assertArrayEquals(new int[] {5, 6}, Userinterface.prefixRange(files, "z"));
+        assertArrayEquals(new int[] {1, 1}, Userinterface.prefixRange(files, "nothing"));
+    }
+
+    @Test
+    void parseFileNumbers_acceptsListsAndRanges() {
+        assertEquals(List.of(1, 3, 4, 5, 9), Userinterface.parseFileNumbers("01,03-05,09"));
+    }
+
+    @Test
+    void parseFileNumbers_rejectsMalformedSpecs() {
+        assertNull(Userinterface.parseFileNumbers(""));
+        assertNull(Userinterface.parseFileNumbers("1,2"));
+        assertNull(Userinterface.parseFileNumbers("05-03"));
+        assertNull(Userinterface.parseFileNumbers("01-02-03"));
+        assertNull(Userinterface.parseFileNumbers("01,,02"));
+    }
+
+    @Test
+    void parseLineRange_acceptsRangesAndSingleLines() {
+        assertArrayEquals(new long[] {5000, 5100}, Userinterface.parseLineRange("5000-5100"));
+        assertArrayEquals(new long[] {42, 42}, Userinterface.parseLineRange("42"));
+    }
+
+    @Test
+    void parseLineRange_rejectsMalformedRanges() {
+        assertNull(Userinterface.parseLineRange("0-5"));
+        assertNull(Userinterface.parseLineRange("9-3"));
+        assertNull(Userinterface.parseLineRange("1-2-3"));
+        assertNull(Userinterface.parseLineRange("-4"));
+        assertNull(Userinterface.parseLineRange("a-b"));
+    }
+
+    @Test
+    void serve_withBadPort_printsErrorWithoutStarting() {
+        ProgramControl control = mock(ProgramControl.class);
+        Userinterface ui = new Userinterface(control, out, err);
+
+        ui.run(new String[] {"--serve", "--port", "70000"});
+        ui.run(new String[] {"--serve", "--port"});
+        ui.run(new String[] {"--serve", "extra"});
+
+        assertEquals(3, stderr().split("Error: Usage: --serve \\[--port N\\]", -1).length - 1);
+        assertFalse(stdout().contains("Serving on"));
+    }
+
+    @Test
+    void remoteRejection_refusesPathCommandsAndConfinesKeyPaths() {
+        assertNull(Userinterface.remoteRejection(new String[] {"01", "ciphers/key.txt"}));
+        assertNull(Userinterface.remoteRejection(new String[] {"--search", "/not/a/path", "key.txt"}));
+        assertNull(Userinterface.remoteRejection(new String[] {"--files", "01,03", "--out"}));
+        assertNotNull(Userinterface.remoteRejection(new String[] {"01", "/home/someone/key.txt"}));
+        assertNotNull(Userinterface.remoteRejection(new String[] {"01", "ciphers/../../key.txt"}));
+        assertNotNull(Userinterface.remoteRejection(new String[] {"--all", "../key.txt"}));
+        assertNotNull(Userinterface.remoteRejection(new String[] {"01", "--output", "plain.txt"}));
+        assertNotNull(Userinterface.remoteRejection(new String[] {"--recover-key", "01", "found.txt"}));
+        assertNotNull(Userinterface.remoteRejection(new String[] {"--serve"}));
+    }
 }
@@ -0,0 +1,115 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD byte decoder for ASCII keys, built on the incubating Vector API.
+ *
+ * The 128-entry ASCII table is split into slices as wide as one vector (16, 32 or
+ * 64 bytes). Each step loads one vector of input and, for every slice, looks up the
+ * lanes that fall inside it with a lane shuffle and blends them into the result.
+ * Lanes outside ASCII never match a slice and are passed through unchanged.
+ *
+ * Only touch this class after CipherKey has checked that jdk.incubator.vector is
+ * available; it fails to link otherwise. It lives in its own source set so that only
+ * it is compiled with --add-modules jdk.incubator.vector; CipherKey loads it by name.
+ */
+final class VectorDecoder implements CipherKey.ByteKernel {
+
+    private static final VectorSpecies<Byte> SPECIES = pickSpecies();
+
+    private final byte[] table;
+    private final ByteVector[] slices;
+
+    VectorDecoder(byte[] table) {
+        this.table = table;
+        int lanes = SPECIES.length();
+        slices = new ByteVector[table.length / lanes];
+        for (int k = 0; k < slices.length; k++) {
+            slices[k] = ByteVector.fromArray(SPECIES, table, k * lanes);
+        }
+    }
+
+    /**
+     * Returns true if the CPU has 512-bit byte vectors. With narrower vectors the table
+     * takes 4 or 8 slices, and their lane shuffles cost more than the scalar loop: on
+     * AVX2 the kernel ran 1.5 to 6 times slower than the scalar table.
+     */
+    static boolean isUsable() {
+        return SPECIES.length() >= 64;
+    }
+
+    /** Number of bytes translated per step. */
+    static int lanes() {
+        return SPECIES.length();
+    }
+
+    @Override
+    public void decode(byte[] src, byte[] dst, int off, int len) {
+        int lanes = SPECIES.length();
+        int i = off;
+        int upper = off + SPECIES.loopBound(len);
+
+        for (; i < upper; i += lanes) {
+            translate(ByteVector.fromArray(SPECIES, src, i)).intoArray(dst, i);
+        }
+
+        int end = off + len;
+        for (; i < end; i++) {
+            byte b = src[i];
+            dst[i] = b >= 0 ? table[b] : b;
+        }
+    }
+
+    @Override
+    public int decodeUntilCR(ByteBuffer src, int from, int to, ByteBuffer dst, int at) {
+        int lanes = SPECIES.length();
+        ByteOrder order = ByteOrder.nativeOrder();
+        int i = from;
+
+        // Whole vectors without a '\r'; the one holding it is finished by the scalar loop
+        for (; to - i >= lanes; i += lanes, at += lanes) {
+            ByteVector v = ByteVector.fromByteBuffer(SPECIES, src, i, order);
+            if (v.compare(VectorOperators.EQ, (byte) '\r').anyTrue()) {
+                break;
+            }
+            translate(v).intoByteBuffer(dst, at, order);
+        }
+
+        for (; i < to; i++) {
+            byte b = src.get(i);
+            if (b == '\r') {
+                break;
+            }
+            dst.put(at++, b >= 0 ? table[b] : b);
+        }
+        return i;
+    }
+
+    /**
+     * Looks up every ASCII lane of v in the table; other lanes are passed through.
+     */
+    private ByteVector translate(ByteVector v) {
+        int lanes = SPECIES.length();
+        ByteVector result = v;
+        for (int k = 0; k < slices.length; k++) {
+            ByteVector idx = v.sub((byte) (k * lanes));
+            VectorMask<Byte> inSlice = idx.compare(VectorOperators.UNSIGNED_LT, (byte) lanes);
+            if (inSlice.anyTrue()) {
+                ByteVector looked = idx.and((byte) (lanes - 1)).selectFrom(slices[k]);
+                result = result.blend(looked, inSlice);
+            }
+        }
+        return result;
+    }
+
+    private static VectorSpecies<Byte> pickSpecies() {
+        VectorSpecies<Byte> preferred = ByteVector.SPECIES_PREFERRED;
+        // The table has 128 entries, so wider vectors than 512 bits would not help
+        return preferred.length() > 64 ? ByteVector.SPECIES_512 : preferred;
+    }
+}